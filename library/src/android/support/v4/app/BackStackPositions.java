@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.app;
+
+import android.util.SparseIntArray;
+
+import java.util.HashMap;
+
+/**
+ * Index of the entries on a fragment manager's back stack, by name and by
+ * identifier, so that popping to a given entry does not have to scan the
+ * stack.  Entries are only ever pushed on and popped off the top, so the
+ * positions recorded for a name are always in ascending order and the
+ * top-most match is simply the last one.
+ */
+final class BackStackPositions {
+    static final class Positions {
+        int[] mValues = new int[4];
+        int mSize;
+    }
+
+    private final HashMap<String, Positions> mNames = new HashMap<String, Positions>();
+    private final SparseIntArray mIds = new SparseIntArray();
+
+    /**
+     * Record that <var>bse</var> has been pushed at <var>position</var>,
+     * which must be the new top of the stack.
+     */
+    void push(BackStackRecord bse, int position) {
+        final String name = bse.getName();
+        if (name != null) {
+            Positions positions = mNames.get(name);
+            if (positions == null) {
+                positions = new Positions();
+                mNames.put(name, positions);
+            }
+            if (positions.mSize == positions.mValues.length) {
+                int[] newValues = new int[positions.mSize*2];
+                System.arraycopy(positions.mValues, 0, newValues, 0, positions.mSize);
+                positions.mValues = newValues;
+            }
+            positions.mValues[positions.mSize++] = position;
+        }
+        if (bse.mIndex >= 0) {
+            mIds.put(bse.mIndex, position);
+        }
+    }
+
+    /**
+     * Record that <var>bse</var>, the current top of the stack, is being
+     * popped.  Must be called before its identifier is released.
+     */
+    void pop(BackStackRecord bse) {
+        final String name = bse.getName();
+        if (name != null) {
+            Positions positions = mNames.get(name);
+            if (positions != null && positions.mSize > 0) {
+                // Keep the empty entry around, the name is likely to be
+                // pushed again.
+                positions.mSize--;
+            }
+        }
+        if (bse.mIndex >= 0) {
+            mIds.delete(bse.mIndex);
+        }
+    }
+
+    void clear() {
+        mNames.clear();
+        mIds.clear();
+    }
+
+    /**
+     * Return the position of the top-most entry with the given name, or -1.
+     */
+    int lastPositionOf(String name) {
+        Positions positions = mNames.get(name);
+        if (positions == null || positions.mSize == 0) {
+            return -1;
+        }
+        return positions.mValues[positions.mSize-1];
+    }
+
+    /**
+     * Return the position of the entry with the given identifier, or -1.
+     */
+    int positionOf(int id) {
+        return mIds.get(id, -1);
+    }
+
+    /**
+     * Return the lowest position of the run of consecutive entries with the
+     * given name that ends with its top-most entry.
+     */
+    int firstOfTopRun(String name) {
+        Positions positions = mNames.get(name);
+        if (positions == null || positions.mSize == 0) {
+            return -1;
+        }
+        final int[] values = positions.mValues;
+        int i = positions.mSize-1;
+        while (i > 0 && values[i-1] == values[i]-1) {
+            i--;
+        }
+        return values[i];
+    }
+}
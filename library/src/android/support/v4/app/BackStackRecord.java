@@ -17,144 +17,12 @@
 package android.support.v4.app;
 
 import android.os.Build;
-import android.os.Parcel;
-import android.os.Parcelable;
-import android.text.TextUtils;
 import android.util.Log;
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import com.actionbarsherlock.R;
 
-final class BackStackState implements Parcelable {
-    final int[] mOps;
-    final int mTransition;
-    final int mTransitionStyle;
-    final String mName;
-    final int mIndex;
-    final int mBreadCrumbTitleRes;
-    final CharSequence mBreadCrumbTitleText;
-    final int mBreadCrumbShortTitleRes;
-    final CharSequence mBreadCrumbShortTitleText;
-
-    public BackStackState(FragmentManagerImpl fm, BackStackRecord bse) {
-        int numRemoved = 0;
-        BackStackRecord.Op op = bse.mHead;
-        while (op != null) {
-            if (op.removed != null) numRemoved += op.removed.size();
-            op = op.next;
-        }
-        mOps = new int[bse.mNumOp*5 + numRemoved];
-
-        if (!bse.mAddToBackStack) {
-            throw new IllegalStateException("Not on back stack");
-        }
-
-        op = bse.mHead;
-        int pos = 0;
-        while (op != null) {
-            mOps[pos++] = op.cmd;
-            mOps[pos++] = op.fragment.mIndex;
-            mOps[pos++] = op.enterAnim;
-            mOps[pos++] = op.exitAnim;
-            if (op.removed != null) {
-                final int N = op.removed.size();
-                mOps[pos++] = N;
-                for (int i=0; i<N; i++) {
-                    mOps[pos++] = op.removed.get(i).mIndex;
-                }
-            } else {
-                mOps[pos++] = 0;
-            }
-            op = op.next;
-        }
-        mTransition = bse.mTransition;
-        mTransitionStyle = bse.mTransitionStyle;
-        mName = bse.mName;
-        mIndex = bse.mIndex;
-        mBreadCrumbTitleRes = bse.mBreadCrumbTitleRes;
-        mBreadCrumbTitleText = bse.mBreadCrumbTitleText;
-        mBreadCrumbShortTitleRes = bse.mBreadCrumbShortTitleRes;
-        mBreadCrumbShortTitleText = bse.mBreadCrumbShortTitleText;
-    }
-
-    public BackStackState(Parcel in) {
-        mOps = in.createIntArray();
-        mTransition = in.readInt();
-        mTransitionStyle = in.readInt();
-        mName = in.readString();
-        mIndex = in.readInt();
-        mBreadCrumbTitleRes = in.readInt();
-        mBreadCrumbTitleText = TextUtils.CHAR_SEQUENCE_CREATOR.createFromParcel(in);
-        mBreadCrumbShortTitleRes = in.readInt();
-        mBreadCrumbShortTitleText = TextUtils.CHAR_SEQUENCE_CREATOR.createFromParcel(in);
-    }
-
-    public BackStackRecord instantiate(FragmentManagerImpl fm) {
-        BackStackRecord bse = new BackStackRecord(fm);
-        int pos = 0;
-        while (pos < mOps.length) {
-            BackStackRecord.Op op = new BackStackRecord.Op();
-            op.cmd = mOps[pos++];
-            if (FragmentManagerImpl.DEBUG) Log.v(FragmentManagerImpl.TAG,
-                    "BSE " + bse + " set base fragment #" + mOps[pos]);
-            Fragment f = fm.mActive.get(mOps[pos++]);
-            op.fragment = f;
-            op.enterAnim = mOps[pos++];
-            op.exitAnim = mOps[pos++];
-            final int N = mOps[pos++];
-            if (N > 0) {
-                op.removed = new ArrayList<Fragment>(N);
-                for (int i=0; i<N; i++) {
-                    if (FragmentManagerImpl.DEBUG) Log.v(FragmentManagerImpl.TAG,
-                            "BSE " + bse + " set remove fragment #" + mOps[pos]);
-                    Fragment r = fm.mActive.get(mOps[pos++]);
-                    op.removed.add(r);
-                }
-            }
-            bse.addOp(op);
-        }
-        bse.mTransition = mTransition;
-        bse.mTransitionStyle = mTransitionStyle;
-        bse.mName = mName;
-        bse.mIndex = mIndex;
-        bse.mAddToBackStack = true;
-        bse.mBreadCrumbTitleRes = mBreadCrumbTitleRes;
-        bse.mBreadCrumbTitleText = mBreadCrumbTitleText;
-        bse.mBreadCrumbShortTitleRes = mBreadCrumbShortTitleRes;
-        bse.mBreadCrumbShortTitleText = mBreadCrumbShortTitleText;
-        bse.bumpBackStackNesting(1);
-        return bse;
-    }
-
-    public int describeContents() {
-        return 0;
-    }
-
-    public void writeToParcel(Parcel dest, int flags) {
-        dest.writeIntArray(mOps);
-        dest.writeInt(mTransition);
-        dest.writeInt(mTransitionStyle);
-        dest.writeString(mName);
-        dest.writeInt(mIndex);
-        dest.writeInt(mBreadCrumbTitleRes);
-        TextUtils.writeToParcel(mBreadCrumbTitleText, dest, 0);
-        dest.writeInt(mBreadCrumbShortTitleRes);
-        TextUtils.writeToParcel(mBreadCrumbShortTitleText, dest, 0);
-    }
-
-    public static final Parcelable.Creator<BackStackState> CREATOR
-            = new Parcelable.Creator<BackStackState>() {
-        public BackStackState createFromParcel(Parcel in) {
-            return new BackStackState(in);
-        }
-
-        public BackStackState[] newArray(int size) {
-            return new BackStackState[size];
-        }
-    };
-}
-
 /**
  * @hide Entry of an operation on the fragment back stack.
  */
@@ -203,6 +71,10 @@ final class BackStackRecord extends FragmentTransaction implements
     int mBreadCrumbShortTitleRes;
     CharSequence mBreadCrumbShortTitleText;
 
+    // Set when this entry was lazily restored and its operations have not
+    // been built yet.
+    BackStackState mPendingState;
+
     public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
         writer.print(prefix); writer.print("mName="); writer.print(mName);
                 writer.print(" mIndex="); writer.print(mIndex);
@@ -232,6 +104,11 @@ final class BackStackRecord extends FragmentTransaction implements
                     writer.println(mBreadCrumbShortTitleText);
         }
 
+        if (mPendingState != null) {
+            writer.print(prefix); writer.print("Operations not yet restored: ");
+                    writer.println(mPendingState.mOps.length);
+        }
+
         if (mHead != null) {
             writer.print(prefix); writer.println("Operations:");
             String innerPrefix = prefix + "    ";
@@ -294,6 +171,19 @@ final class BackStackRecord extends FragmentTransaction implements
         return mBreadCrumbShortTitleText;
     }
 
+    /**
+     * Build the operations of a lazily restored entry, if that has not
+     * happened yet.
+     */
+    void ensureOps() {
+        if (mPendingState != null) {
+            final BackStackState state = mPendingState;
+            mPendingState = null;
+            if (FragmentManagerImpl.DEBUG) Log.v(TAG, "Restoring ops of " + this);
+            state.instantiateOps(mManager, this);
+        }
+    }
+
     void addOp(Op op) {
         if (mHead == null) {
             mHead = mTail = op;
@@ -633,6 +523,7 @@ final class BackStackRecord extends FragmentTransaction implements
     public void popFromBackStack(boolean doStateMove) {
         if (FragmentManagerImpl.DEBUG) Log.v(TAG, "popFromBackStack: " + this);
 
+        ensureOps();
         bumpBackStackNesting(-1);
 
         Op op = mTail;
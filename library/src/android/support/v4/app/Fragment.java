@@ -40,104 +40,7 @@ import android.view.View.OnCreateContextMenuListener;
 import android.view.animation.Animation;
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
-import java.util.HashMap;
-
-final class FragmentState implements Parcelable {
-    final String mClassName;
-    final int mIndex;
-    final boolean mFromLayout;
-    final int mFragmentId;
-    final int mContainerId;
-    final String mTag;
-    final boolean mRetainInstance;
-    final boolean mDetached;
-    final Bundle mArguments;
-
-    Bundle mSavedFragmentState;
-
-    Fragment mInstance;
-
-    public FragmentState(Fragment frag) {
-        mClassName = frag.getClass().getName();
-        mIndex = frag.mIndex;
-        mFromLayout = frag.mFromLayout;
-        mFragmentId = frag.mFragmentId;
-        mContainerId = frag.mContainerId;
-        mTag = frag.mTag;
-        mRetainInstance = frag.mRetainInstance;
-        mDetached = frag.mDetached;
-        mArguments = frag.mArguments;
-    }
-
-    public FragmentState(Parcel in) {
-        mClassName = in.readString();
-        mIndex = in.readInt();
-        mFromLayout = in.readInt() != 0;
-        mFragmentId = in.readInt();
-        mContainerId = in.readInt();
-        mTag = in.readString();
-        mRetainInstance = in.readInt() != 0;
-        mDetached = in.readInt() != 0;
-        mArguments = in.readBundle();
-        mSavedFragmentState = in.readBundle();
-    }
-
-    public Fragment instantiate(SupportActivity activity) {
-        if (mInstance != null) {
-            return mInstance;
-        }
-
-        if (mArguments != null) {
-            mArguments.setClassLoader(activity.getClassLoader());
-        }
-
-        mInstance = Fragment.instantiate(activity.asActivity(), mClassName, mArguments);
-
-        if (mSavedFragmentState != null) {
-            mSavedFragmentState.setClassLoader(activity.getClassLoader());
-            mInstance.mSavedFragmentState = mSavedFragmentState;
-        }
-        mInstance.setIndex(mIndex);
-        mInstance.mFromLayout = mFromLayout;
-        mInstance.mRestored = true;
-        mInstance.mFragmentId = mFragmentId;
-        mInstance.mContainerId = mContainerId;
-        mInstance.mTag = mTag;
-        mInstance.mRetainInstance = mRetainInstance;
-        mInstance.mDetached = mDetached;
-        mInstance.mFragmentManager = activity.getInternalCallbacks().getFragments();
-
-        return mInstance;
-    }
-
-    public int describeContents() {
-        return 0;
-    }
-
-    public void writeToParcel(Parcel dest, int flags) {
-        dest.writeString(mClassName);
-        dest.writeInt(mIndex);
-        dest.writeInt(mFromLayout ? 1 : 0);
-        dest.writeInt(mFragmentId);
-        dest.writeInt(mContainerId);
-        dest.writeString(mTag);
-        dest.writeInt(mRetainInstance ? 1 : 0);
-        dest.writeInt(mDetached ? 1 : 0);
-        dest.writeBundle(mArguments);
-        dest.writeBundle(mSavedFragmentState);
-    }
-
-    public static final Parcelable.Creator<FragmentState> CREATOR
-            = new Parcelable.Creator<FragmentState>() {
-        public FragmentState createFromParcel(Parcel in) {
-            return new FragmentState(in);
-        }
-
-        public FragmentState[] newArray(int size) {
-            return new FragmentState[size];
-        }
-    };
-}
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Static library support version of the framework's {@link android.app.Fragment}.
@@ -147,8 +50,11 @@ final class FragmentState implements Parcelable {
  * documentation for a class overview.
  */
 public class Fragment implements ComponentCallbacks, OnCreateContextMenuListener {
-    private static final HashMap<String, Class<?>> sClassMap =
-            new HashMap<String, Class<?>>();
+    private static final ConcurrentHashMap<String, Class<?>> sClassMap =
+            new ConcurrentHashMap<String, Class<?>>();
+
+    private static final ConcurrentHashMap<String, Factory> sFactories =
+            new ConcurrentHashMap<String, Factory>();
 
     static final int INITIALIZING = 0;     // Not yet created.
     static final int CREATED = 1;          // Created.
@@ -329,6 +235,38 @@ public class Fragment implements ComponentCallbacks, OnCreateContextMenuListener
         }
     }
 
+    /**
+     * Creates instances of one fragment class without going through
+     * reflection.  See {@link Fragment#registerFactory(Class, Factory)}.
+     */
+    public interface Factory {
+        /**
+         * Return a new instance of the fragment class this factory was
+         * registered for, as if created by its empty constructor.
+         */
+        public Fragment newInstance();
+    }
+
+    /**
+     * Register a factory used by {@link #instantiate(Context, String, Bundle)}
+     * to create instances of <var>fragmentClass</var>, which includes every
+     * time such a fragment is restored from saved state.  Without a factory
+     * the class is looked up by name and its empty constructor invoked
+     * through reflection.  This may be called from any thread.
+     *
+     * @param fragmentClass The fragment class the factory creates.
+     * @param factory The factory, or null to remove a previously registered one.
+     */
+    public static void registerFactory(Class<? extends Fragment> fragmentClass,
+            Factory factory) {
+        final String fname = fragmentClass.getName();
+        if (factory != null) {
+            sFactories.put(fname, factory);
+        } else {
+            sFactories.remove(fname);
+        }
+    }
+
     /**
      * Default constructor.  <strong>Every</strong> fragment must have an
      * empty constructor, so it can be instantiated when restoring its
@@ -359,7 +297,8 @@ public class Fragment implements ComponentCallbacks, OnCreateContextMenuListener
 
     /**
      * Create a new instance of a Fragment with the given class name.  This is
-     * the same as calling its empty constructor.
+     * the same as calling its empty constructor, or the factory registered
+     * for it with {@link #registerFactory(Class, Factory)}.
      *
      * @param context The calling context being used to instantiate the fragment.
      * This is currently just used to get its ClassLoader.
@@ -373,13 +312,23 @@ public class Fragment implements ComponentCallbacks, OnCreateContextMenuListener
      */
     public static Fragment instantiate(Context context, String fname, Bundle args) {
         try {
-            Class<?> clazz = sClassMap.get(fname);
-            if (clazz == null) {
-                // Class not found in the cache, see if it's real, and try to add it
-                clazz = context.getClassLoader().loadClass(fname);
-                sClassMap.put(fname, clazz);
+            Fragment f;
+            Factory factory = sFactories.get(fname);
+            if (factory != null) {
+                f = factory.newInstance();
+                if (f == null) {
+                    throw new InstantiationException("Unable to instantiate fragment " + fname
+                            + ": its registered factory returned null", null);
+                }
+            } else {
+                Class<?> clazz = sClassMap.get(fname);
+                if (clazz == null) {
+                    // Class not found in the cache, see if it's real, and try to add it
+                    clazz = context.getClassLoader().loadClass(fname);
+                    sClassMap.put(fname, clazz);
+                }
+                f = (Fragment)clazz.newInstance();
             }
-            Fragment f = (Fragment)clazz.newInstance();
             if (args != null) {
                 args.setClassLoader(f.getClass().getClassLoader());
                 f.mArguments = args;
@@ -21,6 +21,7 @@ import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.UUID;
 import com.actionbarsherlock.R;
 import com.actionbarsherlock.internal.app.ActionBarWrapper;
 import com.actionbarsherlock.internal.app.ActionBarImpl;
@@ -78,6 +79,7 @@ public class FragmentActivity extends Activity implements SupportActivity {
     private static final boolean DEBUG = false;
 
     private static final String FRAGMENTS_TAG = "android:support:fragments";
+    private static final String SNAPSHOT_TOKEN_TAG = "android:support:snapshot_token";
 
     static final boolean IS_HONEYCOMB = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
 
@@ -115,8 +117,20 @@ public class FragmentActivity extends Activity implements SupportActivity {
         void ensureSupportActionBarAttached() {
             FragmentActivity.this.ensureSupportActionBarAttached();
         }
+
+        @Override
+        String getSnapshotToken() {
+            if (mSnapshotToken == null) {
+                mSnapshotToken = UUID.randomUUID().toString();
+            }
+            return mSnapshotToken;
+        }
     };
 
+    // Identifies this instance, across process restarts, to the loader
+    // snapshot store.
+    String mSnapshotToken;
+
     final Handler mHandler = new Handler() {
         @Override
         public void handleMessage(Message msg) {
@@ -416,6 +430,7 @@ public class FragmentActivity extends Activity implements SupportActivity {
             mAllLoaderManagers = nc.loaders;
         }
         if (savedInstanceState != null) {
+            mSnapshotToken = savedInstanceState.getString(SNAPSHOT_TOKEN_TAG);
             Parcelable p = savedInstanceState.getParcelable(FRAGMENTS_TAG);
             mFragments.restoreAllState(p, nc != null ? nc.fragments : null);
         }
@@ -875,6 +890,9 @@ public class FragmentActivity extends Activity implements SupportActivity {
         if (p != null) {
             outState.putParcelable(FRAGMENTS_TAG, p);
         }
+        if (mSnapshotToken != null) {
+            outState.putString(SNAPSHOT_TOKEN_TAG, mSnapshotToken);
+        }
     }
 
     /**
@@ -1188,7 +1206,7 @@ public class FragmentActivity extends Activity implements SupportActivity {
         LoaderManagerImpl lm = mAllLoaderManagers.get(index);
         if (lm == null) {
             if (create) {
-                lm = new LoaderManagerImpl(this, started);
+                lm = new LoaderManagerImpl(this, started, index);
                 mAllLoaderManagers.put(index, lm);
             }
         } else {
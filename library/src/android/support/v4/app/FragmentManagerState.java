@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.app;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.lang.ref.WeakReference;
+
+final class FragmentManagerState implements Parcelable {
+    FragmentState[] mActive;
+    int[] mAdded;
+    BackStackState[] mBackStack;
+
+    // Not parcelled: whether to write the compact encoding, and the manager
+    // to report the resulting size to.  The saved state can outlive the
+    // activity in-process, so the manager is only weakly held and is
+    // dropped once the size has been reported.
+    boolean mCompact;
+    WeakReference<FragmentManagerImpl> mManager;
+
+    public FragmentManagerState() {
+    }
+
+    public FragmentManagerState(Parcel in) {
+        final int start = in.dataPosition();
+        if (in.readInt() == FragmentStateCodec.MAGIC) {
+            new FragmentStateCodec().read(this, in);
+            mCompact = true;
+            return;
+        }
+        in.setDataPosition(start);
+        mActive = in.createTypedArray(FragmentState.CREATOR);
+        mAdded = in.createIntArray();
+        mBackStack = in.createTypedArray(BackStackState.CREATOR);
+    }
+
+    public int describeContents() {
+        return 0;
+    }
+
+    public void writeToParcel(Parcel dest, int flags) {
+        final int start = dest.dataPosition();
+        FragmentStateCodec codec = null;
+        if (mCompact) {
+            codec = new FragmentStateCodec();
+            codec.write(this, dest);
+        } else {
+            dest.writeTypedArray(mActive, flags);
+            dest.writeIntArray(mAdded);
+            dest.writeTypedArray(mBackStack, flags);
+        }
+        final FragmentManagerImpl manager = mManager != null ? mManager.get() : null;
+        if (manager != null) {
+            manager.noteSavedStateSize(dest.dataPosition() - start, codec);
+        }
+        mManager = null;
+    }
+
+    public static final Parcelable.Creator<FragmentManagerState> CREATOR
+            = new Parcelable.Creator<FragmentManagerState>() {
+        public FragmentManagerState createFromParcel(Parcel in) {
+            return new FragmentManagerState(in);
+        }
+
+        public FragmentManagerState[] newArray(int size) {
+            return new FragmentManagerState[size];
+        }
+    };
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.app;
+
+/**
+ * The active fragments of a fragment manager grouped by their current
+ * state, each group ordered by fragment index.  This lets the manager move
+ * all of its fragments to a new state while only visiting the ones that
+ * actually have to transition, in the same order as the active list.
+ *
+ * <p>Fragments that are not added never rise above {@link Fragment#CREATED},
+ * and a fragment that is removed or detached is moved down to that state
+ * right away.  So when moving to a state above CREATED, every fragment
+ * already in that state is added and has nothing to do, and a fragment in
+ * the CREATED state only has something to do if it is added.
+ */
+final class FragmentStateBuckets {
+    private final Fragment[][] mBuckets = new Fragment[Fragment.RESUMED+1][];
+    private final int[] mSizes = new int[Fragment.RESUMED+1];
+    private final int[] mCursors = new int[Fragment.RESUMED+1];
+
+    // Number of fragments handed out for a transition, and number of
+    // fragments passed over since they were already in the right state.
+    long mTransitions;
+    long mSkipped;
+
+    FragmentStateBuckets() {
+        for (int i=0; i<mBuckets.length; i++) {
+            mBuckets[i] = new Fragment[4];
+        }
+    }
+
+    void clear() {
+        for (int i=0; i<mBuckets.length; i++) {
+            final Fragment[] bucket = mBuckets[i];
+            for (int j=mSizes[i]-1; j>=0; j--) {
+                bucket[j] = null;
+            }
+            mSizes[i] = 0;
+        }
+    }
+
+    /**
+     * Add an active fragment under its current state.
+     */
+    void add(Fragment f) {
+        final int state = f.mState;
+        Fragment[] bucket = mBuckets[state];
+        final int size = mSizes[state];
+        int pos = search(bucket, size, f.mIndex);
+        if (pos >= 0) {
+            bucket[pos] = f;
+            return;
+        }
+        pos = ~pos;
+        if (size == bucket.length) {
+            Fragment[] newBucket = new Fragment[size*2];
+            System.arraycopy(bucket, 0, newBucket, 0, pos);
+            System.arraycopy(bucket, pos, newBucket, pos+1, size-pos);
+            mBuckets[state] = bucket = newBucket;
+        } else {
+            System.arraycopy(bucket, pos, bucket, pos+1, size-pos);
+        }
+        bucket[pos] = f;
+        mSizes[state] = size+1;
+    }
+
+    /**
+     * Remove a fragment from the group of its current state, if it is there.
+     */
+    void remove(Fragment f) {
+        final int state = f.mState;
+        final Fragment[] bucket = mBuckets[state];
+        final int size = mSizes[state];
+        final int pos = search(bucket, size, f.mIndex);
+        if (pos < 0 || bucket[pos] != f) {
+            return;
+        }
+        System.arraycopy(bucket, pos+1, bucket, pos, size-pos-1);
+        bucket[size-1] = null;
+        mSizes[state] = size-1;
+    }
+
+    /**
+     * Change the state of a fragment, moving it to the matching group if it
+     * is active.
+     */
+    void setState(Fragment f, int newState) {
+        if (f.mState == newState) {
+            return;
+        }
+        if (f.mIndex >= 0) {
+            remove(f);
+            f.mState = newState;
+            add(f);
+        } else {
+            f.mState = newState;
+        }
+    }
+
+    /**
+     * Collect the fragments that need to transition to <var>newState</var>
+     * into <var>out</var>, in fragment index order.
+     *
+     * @return The number of fragments collected, or the required size of the
+     * array negated if <var>out</var> is too small.
+     */
+    int collect(int newState, Fragment[] out) {
+        int total = 0;
+        for (int i=0; i<mSizes.length; i++) {
+            total += mSizes[i];
+        }
+        if (out == null || out.length < total) {
+            return -total;
+        }
+
+        final boolean clampCreated = newState > Fragment.CREATED;
+        for (int i=0; i<mCursors.length; i++) {
+            mCursors[i] = 0;
+        }
+        int count = 0;
+        while (true) {
+            // Pick the lowest index at the head of the groups that are
+            // not already in the target state.
+            int best = -1;
+            int bestIndex = Integer.MAX_VALUE;
+            for (int i=0; i<mBuckets.length; i++) {
+                if (i == newState || mCursors[i] >= mSizes[i]) {
+                    continue;
+                }
+                final int index = mBuckets[i][mCursors[i]].mIndex;
+                if (index < bestIndex) {
+                    best = i;
+                    bestIndex = index;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            final Fragment f = mBuckets[best][mCursors[best]++];
+            if (clampCreated && best == Fragment.CREATED && !f.mAdded) {
+                continue;
+            }
+            out[count++] = f;
+        }
+        mTransitions += count;
+        mSkipped += total - count;
+        return count;
+    }
+
+    private static int search(Fragment[] bucket, int size, int index) {
+        int lo = 0;
+        int hi = size-1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final int midIndex = bucket[mid].mIndex;
+            if (midIndex < index) {
+                lo = mid+1;
+            } else if (midIndex > index) {
+                hi = mid-1;
+            } else {
+                return mid;
+            }
+        }
+        return ~lo;
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.app;
+
+import android.os.BadParcelableException;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.text.TextUtils;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Compact encoding of {@link FragmentManagerState}, used when
+ * {@link FragmentManager#enableCompactStateEncoding(boolean)} is on.
+ *
+ * <p>The structural part of the state (class names, tags, back stack names
+ * and op arrays) is written as a single byte array: strings go through a
+ * de-duplicated UTF-8 string table and all integers are unsigned varints.
+ * Bundles are written once per instance no matter how many fragments refer
+ * to them, and bread crumb texts keep going through the Parcel since they
+ * may be styled; both tables precede the structure that refers to them.
+ *
+ * <p>The encoding starts with {@link #MAGIC}, a negative value that can never
+ * be the array length that leads the plain encoding, so readers can always
+ * tell the two apart.
+ */
+final class FragmentStateCodec {
+    static final int MAGIC = 0x80465301;
+    static final int VERSION = 1;
+
+    static final int FRAGMENT_PRESENT = 1<<0;
+    static final int FRAGMENT_FROM_LAYOUT = 1<<1;
+    static final int FRAGMENT_RETAIN_INSTANCE = 1<<2;
+    static final int FRAGMENT_DETACHED = 1<<3;
+    static final int FRAGMENT_SAME_IDS = 1<<4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Statistics of the last {@link #write} call, reported through
+     * {@link FragmentManager#dump}.
+     */
+    int mStringCount;
+    int mBundleCount;
+    int mSharedBundleCount;
+    int mStructureBytes;
+
+    private final ArrayList<String> mStrings = new ArrayList<String>();
+    private final HashMap<String, Integer> mStringIndices = new HashMap<String, Integer>();
+    private final ArrayList<Bundle> mBundles = new ArrayList<Bundle>();
+    private final IdentityHashMap<Bundle, Integer> mBundleIndices
+            = new IdentityHashMap<Bundle, Integer>();
+    private final ArrayList<CharSequence> mTexts = new ArrayList<CharSequence>();
+
+    private byte[] mBuffer;
+    private int mPos;
+
+    void write(FragmentManagerState fms, Parcel dest) {
+        mStrings.clear();
+        mStringIndices.clear();
+        mBundles.clear();
+        mBundleIndices.clear();
+        mTexts.clear();
+        mSharedBundleCount = 0;
+
+        // Build the string, bundle and text tables first so the structure
+        // that follows only needs to refer to them by index.
+        if (fms.mActive != null) {
+            for (int i=0; i<fms.mActive.length; i++) {
+                FragmentState fs = fms.mActive[i];
+                if (fs != null) {
+                    internString(fs.mClassName);
+                    internString(fs.mTag);
+                    internBundle(fs.mArguments);
+                    internBundle(fs.mSavedFragmentState);
+                }
+            }
+        }
+        if (fms.mBackStack != null) {
+            for (int i=0; i<fms.mBackStack.length; i++) {
+                internString(fms.mBackStack[i].mName);
+            }
+        }
+
+        mBuffer = new byte[256];
+        mPos = 0;
+
+        final int numStrings = mStrings.size();
+        writeVarint(numStrings);
+        for (int i=0; i<numStrings; i++) {
+            byte[] utf = mStrings.get(i).getBytes(UTF_8);
+            writeVarint(utf.length);
+            ensureCapacity(utf.length);
+            System.arraycopy(utf, 0, mBuffer, mPos, utf.length);
+            mPos += utf.length;
+        }
+
+        if (fms.mActive != null) {
+            writeVarint(fms.mActive.length + 1);
+            for (int i=0; i<fms.mActive.length; i++) {
+                writeFragmentState(fms.mActive[i]);
+            }
+        } else {
+            writeVarint(0);
+        }
+
+        if (fms.mAdded != null) {
+            writeVarint(fms.mAdded.length + 1);
+            for (int i=0; i<fms.mAdded.length; i++) {
+                writeVarint(fms.mAdded[i]);
+            }
+        } else {
+            writeVarint(0);
+        }
+
+        if (fms.mBackStack != null) {
+            writeVarint(fms.mBackStack.length + 1);
+            for (int i=0; i<fms.mBackStack.length; i++) {
+                writeBackStackState(fms.mBackStack[i]);
+            }
+        } else {
+            writeVarint(0);
+        }
+
+        dest.writeInt(MAGIC);
+        dest.writeInt(VERSION);
+
+        final int numBundles = mBundles.size();
+        dest.writeInt(numBundles);
+        for (int i=0; i<numBundles; i++) {
+            dest.writeBundle(mBundles.get(i));
+        }
+
+        final int numTexts = mTexts.size();
+        dest.writeInt(numTexts);
+        for (int i=0; i<numTexts; i++) {
+            TextUtils.writeToParcel(mTexts.get(i), dest, 0);
+        }
+
+        dest.writeByteArray(mBuffer, 0, mPos);
+
+        mStringCount = numStrings;
+        mBundleCount = numBundles;
+        mStructureBytes = mPos;
+
+        // Don't hold on to the saved state any longer than needed.
+        mBuffer = null;
+        mStrings.clear();
+        mStringIndices.clear();
+        mBundles.clear();
+        mBundleIndices.clear();
+        mTexts.clear();
+    }
+
+    /**
+     * Read the compact encoding into <var>fms</var>.  The {@link #MAGIC}
+     * header must already have been consumed from <var>in</var>.
+     */
+    void read(FragmentManagerState fms, Parcel in) {
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new BadParcelableException(
+                    "Unknown compact fragment state version " + version);
+        }
+
+        final int numBundles = in.readInt();
+        Bundle[] bundles = new Bundle[numBundles];
+        for (int i=0; i<numBundles; i++) {
+            bundles[i] = in.readBundle();
+        }
+
+        final int numTexts = in.readInt();
+        CharSequence[] texts = new CharSequence[numTexts];
+        for (int i=0; i<numTexts; i++) {
+            texts[i] = TextUtils.CHAR_SEQUENCE_CREATOR.createFromParcel(in);
+        }
+
+        mBuffer = in.createByteArray();
+        mPos = 0;
+
+        final int numStrings = readVarint();
+        String[] strings = new String[numStrings];
+        for (int i=0; i<numStrings; i++) {
+            final int utfLength = readVarint();
+            if (utfLength < 0 || mPos + utfLength > mBuffer.length) {
+                throw new BadParcelableException("Malformed compact fragment state");
+            }
+            strings[i] = new String(mBuffer, mPos, utfLength, UTF_8);
+            mPos += utfLength;
+        }
+
+        final int numActive = readVarint() - 1;
+        if (numActive >= 0) {
+            fms.mActive = new FragmentState[numActive];
+            for (int i=0; i<numActive; i++) {
+                fms.mActive[i] = readFragmentState(strings, bundles);
+            }
+        } else {
+            fms.mActive = null;
+        }
+
+        final int numAdded = readVarint() - 1;
+        if (numAdded >= 0) {
+            fms.mAdded = new int[numAdded];
+            for (int i=0; i<numAdded; i++) {
+                fms.mAdded[i] = readVarint();
+            }
+        } else {
+            fms.mAdded = null;
+        }
+
+        final int numBackStack = readVarint() - 1;
+        if (numBackStack >= 0) {
+            fms.mBackStack = new BackStackState[numBackStack];
+            for (int i=0; i<numBackStack; i++) {
+                fms.mBackStack[i] = readBackStackState(strings, texts);
+            }
+        } else {
+            fms.mBackStack = null;
+        }
+
+        mBuffer = null;
+    }
+
+    private void writeFragmentState(FragmentState fs) {
+        if (fs == null) {
+            writeVarint(0);
+            return;
+        }
+        int flags = FRAGMENT_PRESENT;
+        if (fs.mFromLayout) flags |= FRAGMENT_FROM_LAYOUT;
+        if (fs.mRetainInstance) flags |= FRAGMENT_RETAIN_INSTANCE;
+        if (fs.mDetached) flags |= FRAGMENT_DETACHED;
+        if (fs.mFragmentId == fs.mContainerId) flags |= FRAGMENT_SAME_IDS;
+        writeVarint(flags);
+        writeVarint(fs.mIndex);
+        writeVarint(mStringIndices.get(fs.mClassName));
+        writeStringRef(fs.mTag);
+        writeVarint(fs.mFragmentId);
+        if ((flags&FRAGMENT_SAME_IDS) == 0) {
+            writeVarint(fs.mContainerId);
+        }
+        writeBundleRef(fs.mArguments);
+        writeBundleRef(fs.mSavedFragmentState);
+    }
+
+    private FragmentState readFragmentState(String[] strings, Bundle[] bundles) {
+        final int flags = readVarint();
+        if ((flags&FRAGMENT_PRESENT) == 0) {
+            return null;
+        }
+        final int index = readVarint();
+        final String className = strings[readIndex(strings.length)];
+        final String tag = readRef(strings);
+        final int fragmentId = readVarint();
+        final int containerId = (flags&FRAGMENT_SAME_IDS) != 0 ? fragmentId : readVarint();
+        final Bundle arguments = readRef(bundles);
+        FragmentState fs = new FragmentState(className, index,
+                (flags&FRAGMENT_FROM_LAYOUT) != 0, fragmentId, containerId, tag,
+                (flags&FRAGMENT_RETAIN_INSTANCE) != 0, (flags&FRAGMENT_DETACHED) != 0,
+                arguments);
+        fs.mSavedFragmentState = readRef(bundles);
+        return fs;
+    }
+
+    private void writeBackStackState(BackStackState bss) {
+        final int[] ops = bss.mOps;
+        writeVarint(ops.length);
+        for (int i=0; i<ops.length; i++) {
+            writeVarint(ops[i]);
+        }
+        writeVarint(bss.mTransition);
+        writeVarint(bss.mTransitionStyle);
+        writeStringRef(bss.mName);
+        writeVarint(bss.mIndex + 1);
+        writeVarint(bss.mBreadCrumbTitleRes);
+        writeTextRef(bss.mBreadCrumbTitleText);
+        writeVarint(bss.mBreadCrumbShortTitleRes);
+        writeTextRef(bss.mBreadCrumbShortTitleText);
+    }
+
+    private BackStackState readBackStackState(String[] strings, CharSequence[] texts) {
+        final int numOps = readVarint();
+        int[] ops = new int[numOps];
+        for (int i=0; i<numOps; i++) {
+            ops[i] = readVarint();
+        }
+        final int transition = readVarint();
+        final int transitionStyle = readVarint();
+        final String name = readRef(strings);
+        final int index = readVarint() - 1;
+        final int titleRes = readVarint();
+        final CharSequence titleText = readRef(texts);
+        final int shortTitleRes = readVarint();
+        final CharSequence shortTitleText = readRef(texts);
+        return new BackStackState(ops, transition, transitionStyle, name, index,
+                titleRes, titleText, shortTitleRes, shortTitleText);
+    }
+
+    private void internString(String str) {
+        if (str != null && !mStringIndices.containsKey(str)) {
+            mStringIndices.put(str, mStrings.size());
+            mStrings.add(str);
+        }
+    }
+
+    private void internBundle(Bundle bundle) {
+        if (bundle == null) {
+            return;
+        }
+        if (mBundleIndices.containsKey(bundle)) {
+            mSharedBundleCount++;
+        } else {
+            mBundleIndices.put(bundle, mBundles.size());
+            mBundles.add(bundle);
+        }
+    }
+
+    private void writeStringRef(String str) {
+        writeVarint(str != null ? mStringIndices.get(str) + 1 : 0);
+    }
+
+    private void writeBundleRef(Bundle bundle) {
+        writeVarint(bundle != null ? mBundleIndices.get(bundle) + 1 : 0);
+    }
+
+    private void writeTextRef(CharSequence text) {
+        if (text != null) {
+            mTexts.add(text);
+            writeVarint(mTexts.size());
+        } else {
+            writeVarint(0);
+        }
+    }
+
+    /**
+     * Resolve a table reference written by one of the write*Ref() methods,
+     * where 0 stands for null and anything else is the table index plus one.
+     */
+    private <T> T readRef(T[] table) {
+        final int ref = readVarint();
+        if (ref == 0) {
+            return null;
+        }
+        if (ref > table.length) {
+            throw new BadParcelableException("Malformed compact fragment state");
+        }
+        return table[ref - 1];
+    }
+
+    /**
+     * Read an index written with writeVarint() that must be below
+     * <var>length</var>.
+     */
+    private int readIndex(int length) {
+        final int index = readVarint();
+        if (index < 0 || index >= length) {
+            throw new BadParcelableException("Malformed compact fragment state");
+        }
+        return index;
+    }
+
+    private void writeVarint(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7f) != 0) {
+            mBuffer[mPos++] = (byte)((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        mBuffer[mPos++] = (byte)value;
+    }
+
+    private int readVarint() {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            if (mPos >= mBuffer.length || shift > 28) {
+                throw new BadParcelableException("Malformed compact fragment state");
+            }
+            final byte b = mBuffer[mPos++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (mPos + extra > mBuffer.length) {
+            byte[] newBuffer = new byte[Math.max(mBuffer.length*2, mPos + extra)];
+            System.arraycopy(mBuffer, 0, newBuffer, 0, mPos);
+            mBuffer = newBuffer;
+        }
+    }
+}
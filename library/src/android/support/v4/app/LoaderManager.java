@@ -17,6 +17,7 @@
 package android.support.v4.app;
 
 import android.os.Bundle;
+import android.support.v4.content.AsyncTaskLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.util.DebugUtils;
 import android.util.Log;
@@ -198,6 +199,9 @@ class LoaderManagerImpl extends LoaderManager {
 
     boolean mCreatingLoader;
 
+    // Index of the fragment this manager belongs to, or -1 for the activity.
+    final int mOwnerIndex;
+
     final class LoaderInfo implements Loader.OnLoadCompleteListener<Object> {
         final int mId;
         final Bundle mArgs;
@@ -212,6 +216,8 @@ class LoaderManagerImpl extends LoaderManager {
         boolean mReportNextStart;
         boolean mDestroyed;
         boolean mListenerRegistered;
+        LoaderResultCache.Key mCacheKey;
+        String mSnapshotName;
 
         LoaderInfo mPendingLoader;
 
@@ -388,6 +394,10 @@ class LoaderManagerImpl extends LoaderManager {
 
             //if (DEBUG) Log.v(TAG, "  onLoadFinished returned: " + this);
 
+            if (mCacheKey != null) {
+                LoaderResultCache.put(mCacheKey, data);
+            }
+
             // We have now given the application the new loader with its
             // loaded data, so it should have stopped using the previous
             // loader.  If there is a previous loader on the inactive list,
@@ -452,6 +462,9 @@ class LoaderManagerImpl extends LoaderManager {
             writer.print(prefix); writer.print("mRetaining="); writer.print(mRetaining);
                     writer.print(" mRetainingStarted="); writer.print(mRetainingStarted);
                     writer.print(" mListenerRegistered="); writer.println(mListenerRegistered);
+            if (mCacheKey != null) {
+                writer.print(prefix); writer.print("mCacheKey="); writer.println(mCacheKey);
+            }
             if (mPendingLoader != null) {
                 writer.print(prefix); writer.println("Pending Loader ");
                         writer.print(mPendingLoader); writer.println(":");
@@ -460,9 +473,10 @@ class LoaderManagerImpl extends LoaderManager {
         }
     }
 
-    LoaderManagerImpl(SupportActivity activity, boolean started) {
+    LoaderManagerImpl(SupportActivity activity, boolean started, int ownerIndex) {
         mActivity = activity;
         mStarted = started;
+        mOwnerIndex = ownerIndex;
     }
 
     void updateActivity(SupportActivity activity) {
@@ -474,6 +488,8 @@ class LoaderManagerImpl extends LoaderManager {
         LoaderInfo info = new LoaderInfo(id, args,  (LoaderManager.LoaderCallbacks<Object>)callback);
         Loader<Object> loader = callback.onCreateLoader(id, args);
         info.mLoader = (Loader<Object>)loader;
+        info.mCacheKey = LoaderResultCache.keyFor(loader, args);
+        info.mSnapshotName = LoaderSnapshotStore.nameFor(mActivity, mOwnerIndex, id, loader);
         return info;
     }
 
@@ -515,6 +531,10 @@ class LoaderManagerImpl extends LoaderManager {
      * <var>args</var> given here <em>will be ignored</em> because you will
      * continue using the previous Loader.
      *
+     * <p>If the new Loader is {@link Loader#setResultCacheable(boolean) cacheable}
+     * and {@link LoaderResultCache} holds a result for the same query, that
+     * result is reported right away and replaced once the Loader finishes.
+     *
      * @param id A unique (to this LoaderManager instance) identifier under
      * which to manage the new Loader.
      * @param args Optional arguments that will be propagated to
@@ -537,6 +557,24 @@ class LoaderManagerImpl extends LoaderManager {
             // Loader doesn't already exist; create.
             info = createAndInstallLoader(id, args,  (LoaderManager.LoaderCallbacks<Object>)callback);
             if (DEBUG) Log.v(TAG, "  Created new loader " + info);
+            if (info.mCacheKey != null && !info.mHaveData) {
+                // Hand out what an earlier loader for the same query
+                // produced while this one loads fresh data.
+                Object cached = LoaderResultCache.get(info.mCacheKey);
+                if (cached != null) {
+                    if (DEBUG) Log.v(TAG, "  Using cached result for " + info);
+                    info.mData = cached;
+                    info.mHaveData = true;
+                    if (!mStarted) {
+                        info.mReportNextStart = true;
+                    }
+                }
+            }
+            if (info.mSnapshotName != null && !info.mHaveData) {
+                // Likewise with what was saved before the process was
+                // last killed, once it has been read.
+                readSnapshot(info);
+            }
         } else {
             if (DEBUG) Log.v(TAG, "  Re-using existing loader " + info);
             info.mCallbacks = (LoaderManager.LoaderCallbacks<Object>)callback;
@@ -550,6 +588,27 @@ class LoaderManagerImpl extends LoaderManager {
         return (Loader<D>)info.mLoader;
     }
 
+    void readSnapshot(final LoaderInfo info) {
+        LoaderSnapshotStore.read(info.mSnapshotName, info.mLoader, info.mArgs,
+                new LoaderSnapshotStore.OnSnapshotReadListener() {
+            @Override
+            public void onSnapshotRead(Object data) {
+                if (mLoaders.get(info.mId) != info || info.mDestroyed || info.mHaveData) {
+                    // Replaced, or the loader got there first.
+                    return;
+                }
+                if (DEBUG) Log.v(TAG, "  Using snapshot for " + info);
+                info.mData = data;
+                info.mHaveData = true;
+                if (mStarted) {
+                    info.callOnLoadFinished(info.mLoader, data);
+                } else {
+                    info.mReportNextStart = true;
+                }
+            }
+        });
+    }
+
     /**
      * Call to re-create the Loader associated with a particular ID.  If there
      * is currently a Loader associated with this ID, it will be
@@ -692,9 +751,24 @@ class LoaderManagerImpl extends LoaderManager {
 
         // Call out to sub classes so they can start their loaders
         // Let the existing loaders know that we want to be notified when a load is complete
-        for (int i = mLoaders.size()-1; i >= 0; i--) {
-            mLoaders.valueAt(i).start();
+        // Start the loaders with the highest priority first, so their loads
+        // are queued ahead of the others.
+        for (int priority = AsyncTaskLoader.PRIORITY_HIGH;
+                priority >= AsyncTaskLoader.PRIORITY_LOW; priority--) {
+            for (int i = mLoaders.size()-1; i >= 0; i--) {
+                LoaderInfo li = mLoaders.valueAt(i);
+                if (getPriority(li) == priority) {
+                    li.start();
+                }
+            }
+        }
+    }
+
+    static int getPriority(LoaderInfo li) {
+        if (li.mLoader instanceof AsyncTaskLoader) {
+            return ((AsyncTaskLoader<?>)li.mLoader).getPriority();
         }
+        return AsyncTaskLoader.PRIORITY_NORMAL;
     }
 
     void doStop() {
@@ -707,7 +781,11 @@ class LoaderManagerImpl extends LoaderManager {
         }
 
         for (int i = mLoaders.size()-1; i >= 0; i--) {
-            mLoaders.valueAt(i).stop();
+            LoaderInfo li = mLoaders.valueAt(i);
+            if (li.mSnapshotName != null && li.mHaveData && li.mData != null) {
+                LoaderSnapshotStore.write(li.mSnapshotName, li.mLoader, li.mArgs, li.mData);
+            }
+            li.stop();
         }
         mStarted = false;
     }
@@ -757,6 +835,10 @@ class LoaderManagerImpl extends LoaderManager {
             for (int i = mLoaders.size()-1; i >= 0; i--) {
                 mLoaders.valueAt(i).destroy();
             }
+            if (mActivity != null && mActivity.isFinishing()) {
+                // Nothing will be restored any more.
+                LoaderSnapshotStore.deleteOwner(mActivity, mOwnerIndex);
+            }
         }
 
         if (DEBUG) Log.v(TAG, "Destroying Inactive in " + this);
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.app;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v4.content.Loader;
+import android.support.v4.util.LruCache;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Process-wide cache of loader results, shared by all loader managers.  When
+ * enabled, {@link LoaderManager#initLoader LoaderManager.initLoader()}
+ * delivers the cached result of an earlier loader of the same class,
+ * arguments and URI right away, while the new loader loads fresh data in the
+ * background.  Only loaders that opt in with
+ * {@link Loader#setResultCacheable(boolean)} take part.
+ *
+ * <p>The cache is disabled by default.  All methods must be called from the
+ * process's main thread.
+ */
+public final class LoaderResultCache {
+    /**
+     * Identifies the results of a loader: its class, a snapshot of the
+     * arguments it was created with, and the URI it reads from.
+     */
+    static final class Key {
+        final Class<?> mLoaderClass;
+        final Bundle mArgs;
+        final Uri mUri;
+        final int mHashCode;
+
+        Key(Class<?> loaderClass, Bundle args, Uri uri) {
+            mLoaderClass = loaderClass;
+            mArgs = args != null ? new Bundle(args) : null;
+            mUri = uri;
+            int hash = loaderClass.hashCode();
+            hash = hash*31 + (uri != null ? uri.hashCode() : 0);
+            hash = hash*31 + hashBundle(mArgs);
+            mHashCode = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)o;
+            return mHashCode == other.mHashCode
+                    && mLoaderClass == other.mLoaderClass
+                    && (mUri != null ? mUri.equals(other.mUri) : other.mUri == null)
+                    && bundlesEqual(mArgs, other.mArgs);
+        }
+
+        @Override
+        public String toString() {
+            return mLoaderClass.getName() + " " + mUri + " " + mArgs;
+        }
+    }
+
+    private static LruCache<Key, Object> sCache;
+
+    private LoaderResultCache() {
+    }
+
+    /**
+     * Enable the cache, keeping at most <var>maxEntries</var> results.  Any
+     * results already cached are dropped.
+     */
+    public static void enable(int maxEntries) {
+        sCache = new LruCache<Key, Object>(maxEntries);
+    }
+
+    /**
+     * Disable the cache and drop all cached results.
+     */
+    public static void disable() {
+        sCache = null;
+    }
+
+    /**
+     * Return whether the cache is enabled.
+     */
+    public static boolean isEnabled() {
+        return sCache != null;
+    }
+
+    /**
+     * Drop all cached results, keeping the cache enabled.
+     */
+    public static void clear() {
+        if (sCache != null) {
+            sCache.evictAll();
+        }
+    }
+
+    public static void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix); writer.print("LoaderResultCache: ");
+                writer.println(sCache != null ? sCache.toString() : "disabled");
+    }
+
+    /**
+     * Return the key to cache the results of <var>loader</var> under, or
+     * null if they are not to be cached.
+     */
+    static Key keyFor(Loader<?> loader, Bundle args) {
+        if (sCache == null || loader == null || !loader.isResultCacheable()) {
+            return null;
+        }
+        return new Key(loader.getClass(), args, loader.getResultCacheUri());
+    }
+
+    static Object get(Key key) {
+        return sCache != null ? sCache.get(key) : null;
+    }
+
+    static void put(Key key, Object data) {
+        if (sCache == null) {
+            return;
+        }
+        if (data == null || data instanceof Cursor) {
+            // Cursors are closed by the loader that made them, so they can't
+            // be handed to anyone else.
+            sCache.remove(key);
+            return;
+        }
+        sCache.put(key, data);
+    }
+
+    static int hashBundle(Bundle bundle) {
+        if (bundle == null) {
+            return 0;
+        }
+        int hash = 0;
+        for (String name : bundle.keySet()) {
+            // Order independent, like the bundle itself.
+            hash += name.hashCode() ^ hashValue(bundle.get(name));
+        }
+        return hash;
+    }
+
+    static boolean bundlesEqual(Bundle a, Bundle b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        Set<String> names = a.keySet();
+        if (!names.equals(b.keySet())) {
+            return false;
+        }
+        for (String name : names) {
+            if (!valuesEqual(a.get(name), b.get(name))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hashValue(Object value) {
+        if (value instanceof Bundle) {
+            return hashBundle((Bundle)value);
+        }
+        // Wrap so arrays of any type are hashed by content.
+        return Arrays.deepHashCode(new Object[] { value });
+    }
+
+    private static boolean valuesEqual(Object a, Object b) {
+        if (a instanceof Bundle && b instanceof Bundle) {
+            return bundlesEqual((Bundle)a, (Bundle)b);
+        }
+        return Arrays.deepEquals(new Object[] { a }, new Object[] { b });
+    }
+}
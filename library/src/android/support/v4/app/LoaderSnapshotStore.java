@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.app;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Parcel;
+import android.os.Process;
+import android.support.v4.content.Loader;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * On-disk store of the last results of loaders, so that a screen restored
+ * after its process was killed can show its data right away while its
+ * loaders load fresh data.  Loaders take part by implementing
+ * {@link Snapshottable}.
+ *
+ * <p>A loader's result is written when its loader manager is stopped, which
+ * happens before the process can be killed in the background.  Snapshots
+ * are keyed by a token identifying the activity instance, which is kept in
+ * its saved state, the owner of the loader manager (the activity itself or
+ * one of its fragments) and the loader id.  They are only used for a loader
+ * of the same class created with the same arguments, compared in their
+ * parcelled form.  They are deleted when their activity finishes, and
+ * snapshots of instances that were never restored are deleted after
+ * {@link #MAX_AGE} when the store is enabled.
+ *
+ * <p>The store is disabled by default.  Snapshots are read and written on
+ * a background thread; a snapshot read when a loader is initialized is
+ * delivered to the loader's callbacks unless the loader has produced data
+ * by then.
+ */
+public final class LoaderSnapshotStore {
+    static final String TAG = "LoaderSnapshotStore";
+    static final boolean DEBUG = false;
+
+    static final int MAGIC = 0x4c534e50;
+    static final int VERSION = 2;
+
+    /**
+     * Age after which snapshots are deleted, in milliseconds.
+     */
+    public static final long MAX_AGE = 7 * 24 * 60 * 60 * 1000L;
+
+    /**
+     * Receives a snapshot read in the background, on the main thread.
+     */
+    interface OnSnapshotReadListener {
+        void onSnapshotRead(Object data);
+    }
+
+    /**
+     * Implemented by loaders whose results can be written to a snapshot.
+     */
+    public interface Snapshottable<D> {
+        /**
+         * Write <var>data</var>, a result previously delivered by this
+         * loader.  Called on a background thread, so the result must not
+         * be changed or released by the time it is written.
+         */
+        void writeSnapshot(D data, DataOutputStream out) throws IOException;
+
+        /**
+         * Read a result written by {@link #writeSnapshot}.  Called on a
+         * background thread.
+         */
+        D readSnapshot(DataInputStream in) throws IOException;
+    }
+
+    private static File sDir;
+    private static Handler sHandler;
+    private static Handler sMainHandler;
+
+    private LoaderSnapshotStore() {
+    }
+
+    /**
+     * Enable the store, keeping snapshots in the cache directory of
+     * <var>context</var>.
+     */
+    public static void enable(Context context) {
+        final File dir = new File(context.getCacheDir(), "loader-snapshots");
+        sDir = dir;
+        getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                deleteStale(dir, System.currentTimeMillis() - MAX_AGE);
+            }
+        });
+    }
+
+    /**
+     * Disable the store.  Snapshots already written are kept.
+     */
+    public static void disable() {
+        sDir = null;
+    }
+
+    public static boolean isEnabled() {
+        return sDir != null;
+    }
+
+    /**
+     * Delete all snapshots.
+     */
+    public static void clear() {
+        final File dir = sDir;
+        if (dir == null) {
+            return;
+        }
+        getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                deleteFiles(dir, null);
+            }
+        });
+    }
+
+    /**
+     * Return the name of the snapshot for a loader, or null if it does not
+     * take part.
+     */
+    static String nameFor(SupportActivity activity, int ownerIndex, int id, Loader<?> loader) {
+        if (sDir == null || activity == null || !(loader instanceof Snapshottable)) {
+            return null;
+        }
+        return ownerPrefix(activity, ownerIndex) + id;
+    }
+
+    static String ownerPrefix(SupportActivity activity, int ownerIndex) {
+        return activity.getInternalCallbacks().getSnapshotToken() + "." + ownerIndex + ".";
+    }
+
+    /**
+     * Return the parcelled form of <var>args</var>, or null if they cannot
+     * be parcelled, for instance because they hold a binder.
+     */
+    static byte[] marshallArgs(Bundle args) {
+        if (args == null) {
+            return new byte[0];
+        }
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(args);
+            return parcel.marshall();
+        } catch (RuntimeException e) {
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Read the snapshot <var>name</var> in the background and hand it to
+     * <var>listener</var> on the main thread, if it exists and matches the
+     * loader and its arguments.
+     */
+    static void read(final String name, final Loader<?> loader, Bundle args,
+            final OnSnapshotReadListener listener) {
+        final File dir = sDir;
+        final byte[] marshalledArgs = marshallArgs(args);
+        if (dir == null || marshalledArgs == null) {
+            return;
+        }
+        getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                final Object data = readFile(new File(dir, name), loader, marshalledArgs);
+                if (data != null) {
+                    getMainHandler().post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onSnapshotRead(data);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    static Object readFile(File file, Loader<?> loader, byte[] marshalledArgs) {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !loader.getClass().getName().equals(in.readUTF())) {
+                if (DEBUG) Log.v(TAG, "Snapshot " + file + " does not match " + loader);
+                return null;
+            }
+            final int argsLength = in.readInt();
+            if (argsLength != marshalledArgs.length) {
+                return null;
+            }
+            byte[] savedArgs = new byte[argsLength];
+            in.readFully(savedArgs);
+            if (!Arrays.equals(savedArgs, marshalledArgs)) {
+                if (DEBUG) Log.v(TAG, "Snapshot " + file + " has other arguments");
+                return null;
+            }
+            return ((Snapshottable<Object>)loader).readSnapshot(in);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed reading loader snapshot " + file, e);
+            return null;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed reading loader snapshot " + file, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static void write(final String name, final Loader<?> loader, final Bundle args,
+            final Object data) {
+        final File dir = sDir;
+        final byte[] marshalledArgs = marshallArgs(args);
+        if (dir == null || marshalledArgs == null) {
+            return;
+        }
+        getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    Log.w(TAG, "Unable to create " + dir);
+                    return;
+                }
+                // Write to the side and rename, so a crash part way through
+                // never leaves a truncated snapshot behind.
+                File file = new File(dir, name);
+                File temp = new File(dir, name + ".tmp");
+                DataOutputStream out = null;
+                try {
+                    out = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(temp)));
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeUTF(loader.getClass().getName());
+                    out.writeInt(marshalledArgs.length);
+                    out.write(marshalledArgs);
+                    ((Snapshottable<Object>)loader).writeSnapshot(data, out);
+                    out.close();
+                    out = null;
+                    if (!temp.renameTo(file)) {
+                        Log.w(TAG, "Unable to rename " + temp);
+                        temp.delete();
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed writing loader snapshot " + name, e);
+                    closeQuietly(out);
+                    temp.delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Delete the snapshots of all loaders of an owner.
+     */
+    static void deleteOwner(SupportActivity activity, int ownerIndex) {
+        final File dir = sDir;
+        if (dir == null || activity == null) {
+            return;
+        }
+        final String prefix = ownerPrefix(activity, ownerIndex);
+        getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                deleteFiles(dir, prefix);
+            }
+        });
+    }
+
+    static void deleteFiles(File dir, String prefix) {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        for (int i=0; i<names.length; i++) {
+            if (prefix == null || names[i].startsWith(prefix)) {
+                new File(dir, names[i]).delete();
+            }
+        }
+    }
+
+    static void deleteStale(File dir, long before) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (int i=0; i<files.length; i++) {
+            if (files[i].lastModified() < before) {
+                files[i].delete();
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private static synchronized Handler getHandler() {
+        if (sHandler == null) {
+            HandlerThread thread = new HandlerThread("LoaderSnapshots",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sHandler = new Handler(thread.getLooper());
+        }
+        return sHandler;
+    }
+
+    private static synchronized Handler getMainHandler() {
+        if (sMainHandler == null) {
+            sMainHandler = new Handler(Looper.getMainLooper());
+        }
+        return sMainHandler;
+    }
+}
@@ -20,12 +20,15 @@ import android.content.Context;
 import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.SystemClock;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
 import android.support.v4.util.TimeUtils;
 import android.util.Log;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 
 /**
  * Static library support version of the framework's {@link android.content.AsyncTaskLoader}.
@@ -38,10 +41,21 @@ public abstract class AsyncTaskLoader<D> extends Loader<D> {
     static final String TAG = "AsyncTaskLoader";
     static final boolean DEBUG = false;
 
+    // The signal of the load running on the current thread, if any.
+    static final ThreadLocal<CancellationSignal> sLoadSignal = new ThreadLocal<CancellationSignal>();
+
     final class LoadTask extends AsyncTask<Void, Void, D> implements Runnable {
 
+        final CancellationSignal signal = new CancellationSignal();
         D result;
         boolean waiting;
+        long loadTime = -1;
+
+        // Uptimes of the phases of the load, for tracing; 0 if not reached.
+        long requestTime;
+        long executeTime;
+        volatile long startTime;
+        volatile long endTime;
 
         private CountDownLatch done = new CountDownLatch(1);
 
@@ -49,7 +63,24 @@ public abstract class AsyncTaskLoader<D> extends Loader<D> {
         @Override
         protected D doInBackground(Void... params) {
             if (DEBUG) Log.v(TAG, this + " >>> doInBackground");
-            result = AsyncTaskLoader.this.onLoadInBackground();
+            startTime = SystemClock.uptimeMillis();
+            sLoadSignal.set(signal);
+            try {
+                result = AsyncTaskLoader.this.onLoadInBackground(signal);
+                endTime = SystemClock.uptimeMillis();
+                loadTime = endTime - startTime;
+            } catch (OperationCanceledException ex) {
+                if (!signal.isCanceled()) {
+                    // The load threw this by itself, not because we asked
+                    // it to stop; treat it like any other failure.
+                    throw ex;
+                }
+                endTime = SystemClock.uptimeMillis();
+                if (DEBUG) Log.v(TAG, this + "  <<< doInBackground (was canceled)");
+                return null;
+            } finally {
+                sLoadSignal.set(null);
+            }
             if (DEBUG) Log.v(TAG, this + "  <<< doInBackground");
             return result;
         }
@@ -82,36 +113,247 @@ public abstract class AsyncTaskLoader<D> extends Loader<D> {
         }
     }
 
+    /**
+     * Priority for loads that can wait until everything else is done, such
+     * as prefetching data for screens that are not showing yet.
+     */
+    public static final int PRIORITY_LOW = 0;
+
+    /**
+     * Default priority of loads.
+     */
+    public static final int PRIORITY_NORMAL = 1;
+
+    /**
+     * Priority for loads whose data is needed on screen right now.
+     */
+    public static final int PRIORITY_HIGH = 2;
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Time after which a waiting load is run ahead of higher priority ones
+     * by the default executor.
+     */
+    private static final long DEFAULT_MAX_WAIT = 2000;
+
+    /**
+     * Most content changes per load the adaptive throttle accounts for.
+     */
+    private static final float MAX_CHANGE_PRESSURE = 4f;
+
+    private static final Object sExecutorLock = new Object();
+    private static Executor sDefaultExecutor;
+    private static PriorityExecutor sPoolExecutor;
+
     volatile LoadTask mTask;
     volatile LoadTask mCancellingTask;
 
     long mUpdateThrottle;
     long mLastLoadCompleteTime = -10000;
+    boolean mAdaptiveThrottle;
+    long mMinUpdateThrottle;
+    long mMaxUpdateThrottle;
+    long mAvgLoadTime = -1;
+    long mAvgChangeInterval = -1;
+    long mLastChangeTime = -1;
     Handler mHandler;
+    Executor mExecutor;
+    int mPriority = PRIORITY_NORMAL;
+    boolean mInterruptOnCancel;
 
     public AsyncTaskLoader(Context context) {
         super(context);
     }
 
+    /**
+     * Set the executor used by all loaders that have not been given their
+     * own with {@link #setExecutor(Executor)}.  By default this is a
+     * {@link PriorityExecutor} with one thread per CPU core plus one, so
+     * independent loaders run in parallel instead of one after another.
+     *
+     * <p>Executors are only used when running on Android 3.0 or above.  On
+     * older platforms loads go through {@link AsyncTask#execute}, which
+     * already runs tasks in parallel there.
+     *
+     * @param executor The executor to use, or null to restore the default pool.
+     */
+    public static void setDefaultExecutor(Executor executor) {
+        synchronized (sExecutorLock) {
+            sDefaultExecutor = executor;
+        }
+    }
+
+    /**
+     * Return the executor used by loaders that have not been given their
+     * own, see {@link #setDefaultExecutor(Executor)}.
+     */
+    public static Executor getDefaultExecutor() {
+        synchronized (sExecutorLock) {
+            if (sDefaultExecutor != null) {
+                return sDefaultExecutor;
+            }
+            if (sPoolExecutor == null) {
+                sPoolExecutor = new PriorityExecutor("AsyncTaskLoader", CPU_COUNT + 1,
+                        DEFAULT_MAX_WAIT);
+            }
+            return sPoolExecutor;
+        }
+    }
+
+    /**
+     * Set the executor this loader performs its loads on, overriding the
+     * one set with {@link #setDefaultExecutor(Executor)}.  Takes effect
+     * with the next load.
+     *
+     * @param executor The executor to use, or null to use the default one.
+     */
+    public void setExecutor(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Return the executor this loader performs its loads on.
+     */
+    public Executor getExecutor() {
+        return mExecutor != null ? mExecutor : getDefaultExecutor();
+    }
+
+    /**
+     * Set the priority of this loader's loads when they are run on a
+     * {@link PriorityExecutor}, which is the case by default.  Loads of
+     * higher priority loaders are started first, and a {@link LoaderManager}
+     * also starts the loaders it manages in order of priority.  Takes effect
+     * with the next load.
+     *
+     * @param priority One of {@link #PRIORITY_LOW}, {@link #PRIORITY_NORMAL}
+     * or {@link #PRIORITY_HIGH}.
+     */
+    public void setPriority(int priority) {
+        if (priority < PRIORITY_LOW || priority > PRIORITY_HIGH) {
+            throw new IllegalArgumentException("Unknown priority: " + priority);
+        }
+        mPriority = priority;
+    }
+
+    /**
+     * Return the priority of this loader's loads, see {@link #setPriority(int)}.
+     */
+    public int getPriority() {
+        return mPriority;
+    }
+
     /**
      * Set amount to throttle updates by.  This is the minimum time from
-     * when the last {@link #onLoadInBackground()} call has completed until
-     * a new load is scheduled.
+     * when the last {@link #onLoadInBackground()} call has
+     * completed until a new load is scheduled.  Turns off the adaptive
+     * throttle, see {@link #setAdaptiveUpdateThrottle(long, long)}.
      *
      * @param delayMS Amount of delay, in milliseconds.
      */
     public void setUpdateThrottle(long delayMS) {
+        mAdaptiveThrottle = false;
         mUpdateThrottle = delayMS;
-        if (delayMS != 0) {
+        if (delayMS != 0 && mHandler == null) {
             mHandler = new Handler();
         }
     }
 
+    /**
+     * Throttle updates by an amount that follows how long loads take and
+     * how often the content changes.  While changes are rare, updates are
+     * delayed by <var>minDelayMS</var>.  When changes come in faster than
+     * the loader can load, the delay grows with the load time, so a burst of
+     * changes is picked up by a few loads instead of one load per change,
+     * up to <var>maxDelayMS</var>.  Both are tracked as moving averages, so
+     * the delay drops back soon after a burst ends.
+     *
+     * @param minDelayMS Smallest delay, in milliseconds.
+     * @param maxDelayMS Largest delay, in milliseconds.
+     */
+    public void setAdaptiveUpdateThrottle(long minDelayMS, long maxDelayMS) {
+        if (minDelayMS < 0 || maxDelayMS < minDelayMS) {
+            throw new IllegalArgumentException("Bad throttle bounds: " + minDelayMS
+                    + " to " + maxDelayMS);
+        }
+        mAdaptiveThrottle = true;
+        mMinUpdateThrottle = minDelayMS;
+        mMaxUpdateThrottle = maxDelayMS;
+        if (mHandler == null) {
+            mHandler = new Handler();
+        }
+        updateAdaptiveThrottle();
+    }
+
+    @Override
+    public void onContentChanged() {
+        if (mAdaptiveThrottle) {
+            final long now = SystemClock.uptimeMillis();
+            if (mLastChangeTime >= 0) {
+                mAvgChangeInterval = movingAverage(mAvgChangeInterval, now - mLastChangeTime);
+            }
+            mLastChangeTime = now;
+            updateAdaptiveThrottle();
+        }
+        super.onContentChanged();
+    }
+
+    void noteLoadTime(LoadTask task) {
+        if (mAdaptiveThrottle && task.loadTime >= 0) {
+            mAvgLoadTime = movingAverage(mAvgLoadTime, task.loadTime);
+            updateAdaptiveThrottle();
+        }
+    }
+
+    void updateAdaptiveThrottle() {
+        if (!mAdaptiveThrottle) {
+            return;
+        }
+        long delay = mMinUpdateThrottle;
+        if (mAvgLoadTime > 0 && mAvgChangeInterval >= 0) {
+            // How many changes come in during one load.
+            float pressure = Math.min((float)mAvgLoadTime / Math.max(mAvgChangeInterval, 1),
+                    MAX_CHANGE_PRESSURE);
+            delay = Math.max(delay, (long)(mAvgLoadTime * pressure));
+        }
+        mUpdateThrottle = Math.min(delay, mMaxUpdateThrottle);
+    }
+
+    void traceLoad(LoadTask task, boolean canceled) {
+        if (LoaderTracing.isEnabled()) {
+            LoaderTracing.record(this, task.requestTime, task.executeTime, task.startTime,
+                    task.endTime, SystemClock.uptimeMillis(), canceled);
+        }
+    }
+
+    static long movingAverage(long average, long sample) {
+        return average < 0 ? sample : average + (sample - average) / 4;
+    }
+
+    /**
+     * Set whether {@link #cancelLoad()} also interrupts the thread running a
+     * load in progress, in addition to canceling the load's
+     * {@link CancellationSignal}.  Only useful for loads that block in
+     * interruptible calls; off by default.
+     */
+    public void setInterruptOnCancel(boolean interrupt) {
+        mInterruptOnCancel = interrupt;
+    }
+
+    /**
+     * Return whether {@link #cancelLoad()} interrupts a load in progress,
+     * see {@link #setInterruptOnCancel(boolean)}.
+     */
+    public boolean getInterruptOnCancel() {
+        return mInterruptOnCancel;
+    }
+
     @Override
     protected void onForceLoad() {
         super.onForceLoad();
         cancelLoad();
         mTask = new LoadTask();
+        mTask.requestTime = SystemClock.uptimeMillis();
         if (DEBUG) Log.v(TAG, "Preparing load: mTask=" + mTask);
         executePendingTask();
     }
@@ -127,6 +369,10 @@ public abstract class AsyncTaskLoader<D> extends Loader<D> {
      * will be cleared.  If another load request comes in during this time,
      * it will be held until the cancelled load is complete.
      *
+     * <p>The load's {@link CancellationSignal}, see
+     * {@link #getLoadCancellationSignal()}, is canceled, so a load
+     * that checks it can stop early instead of running to completion.
+     *
      * @return Returns <tt>false</tt> if the task could not be cancelled,
      *         typically because it has already completed normally, or
      *         because {@link #startLoading()} hasn't been called; returns
@@ -155,10 +401,11 @@ public abstract class AsyncTaskLoader<D> extends Loader<D> {
                 mTask = null;
                 return false;
             } else {
-                boolean cancelled = mTask.cancel(false);
+                boolean cancelled = mTask.cancel(mInterruptOnCancel);
                 if (DEBUG) Log.v(TAG, "cancelLoad: cancelled=" + cancelled);
                 if (cancelled) {
                     mCancellingTask = mTask;
+                    mTask.signal.cancel();
                 }
                 mTask = null;
                 return cancelled;
@@ -193,13 +440,22 @@ public abstract class AsyncTaskLoader<D> extends Loader<D> {
                 }
             }
             if (DEBUG) Log.v(TAG, "Executing: " + mTask);
-            mTask.execute((Void[]) null);
-            // XXX TO DO: use reflection to call this version.
-            //mTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void[]) null);
+            mTask.executeTime = SystemClock.uptimeMillis();
+            if (android.os.Build.VERSION.SDK_INT >= 11) {
+                Executor executor = getExecutor();
+                if (executor instanceof PriorityExecutor) {
+                    executor = ((PriorityExecutor)executor).forPriority(mPriority);
+                }
+                AsyncTaskCompatHoneycomb.executeOnExecutor(mTask, executor);
+            } else {
+                mTask.execute((Void[]) null);
+            }
         }
     }
 
     void dispatchOnCancelled(LoadTask task, D data) {
+        noteLoadTime(task);
+        traceLoad(task, true);
         onCanceled(data);
         if (mCancellingTask == task) {
             if (DEBUG) Log.v(TAG, "Cancelled task is now canceled!");
@@ -216,8 +472,11 @@ public abstract class AsyncTaskLoader<D> extends Loader<D> {
         } else {
             if (isAbandoned()) {
                 // This cursor has been abandoned; just cancel the new data.
+                traceLoad(task, true);
                 onCanceled(data);
             } else {
+                noteLoadTime(task);
+                traceLoad(task, false);
                 mLastLoadCompleteTime = SystemClock.uptimeMillis();
                 mTask = null;
                 if (DEBUG) Log.v(TAG, "Delivering result");
@@ -230,6 +489,26 @@ public abstract class AsyncTaskLoader<D> extends Loader<D> {
      */
     public abstract D loadInBackground();
 
+    /**
+     * Return the signal that is canceled when the load running on the
+     * calling thread is no longer wanted, or null if called outside of a
+     * load.  Loads that take a while can check it as they go from
+     * {@link #loadInBackground()}, throwing {@link OperationCanceledException}
+     * (see {@link CancellationSignal#throwIfCanceled()}) to stop early.
+     */
+    protected CancellationSignal getLoadCancellationSignal() {
+        return sLoadSignal.get();
+    }
+
+    /**
+     * Called on a worker thread to start a load, with the signal that is
+     * canceled when the load is no longer wanted.  The default
+     * implementation calls {@link #onLoadInBackground()}.
+     */
+    protected D onLoadInBackground(CancellationSignal signal) {
+        return onLoadInBackground();
+    }
+
     /**
      * Called on a worker thread to perform the actual load. Implementations should not deliver the
      * result directly, but should return them from this method, which will eventually end up
@@ -275,6 +554,16 @@ public abstract class AsyncTaskLoader<D> extends Loader<D> {
             writer.print(prefix); writer.print("mCancellingTask="); writer.print(mCancellingTask);
                     writer.print(" waiting="); writer.println(mCancellingTask.waiting);
         }
+        if (mExecutor != null) {
+            writer.print(prefix); writer.print("mExecutor="); writer.println(mExecutor);
+        }
+        if (mPriority != PRIORITY_NORMAL) {
+            writer.print(prefix); writer.print("mPriority="); writer.println(mPriority);
+        }
+        if (mInterruptOnCancel) {
+            writer.print(prefix); writer.print("mInterruptOnCancel=");
+                    writer.println(mInterruptOnCancel);
+        }
         if (mUpdateThrottle != 0) {
             writer.print(prefix); writer.print("mUpdateThrottle=");
                     TimeUtils.formatDuration(mUpdateThrottle, writer);
@@ -283,5 +572,12 @@ public abstract class AsyncTaskLoader<D> extends Loader<D> {
                             SystemClock.uptimeMillis(), writer);
                     writer.println();
         }
+        if (mAdaptiveThrottle) {
+            writer.print(prefix); writer.print("Adaptive throttle: min=");
+                    TimeUtils.formatDuration(mMinUpdateThrottle, writer);
+                    writer.print(" max="); TimeUtils.formatDuration(mMaxUpdateThrottle, writer);
+                    writer.print(" avgLoad="); writer.print(mAvgLoadTime);
+                    writer.print(" avgChangeInterval="); writer.println(mAvgChangeInterval);
+        }
     }
 }
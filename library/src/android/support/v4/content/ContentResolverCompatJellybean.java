@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.content;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Implementation of ContentResolver compatibility that can call Jellybean
+ * APIs.  The library is built against an older SDK, so the query taking a
+ * framework cancellation signal is reached through reflection; only use this
+ * on Android 4.1 or above.
+ */
+class ContentResolverCompatJellybean {
+    static final String TAG = "ContentResolverCompat";
+
+    private static Method sQuery;
+    private static Class<?> sOperationCanceledClass;
+    private static boolean sLookedUp;
+
+    private static synchronized boolean lookUp() {
+        if (!sLookedUp) {
+            sLookedUp = true;
+            try {
+                final Class<?> signalClass = Class.forName("android.os.CancellationSignal");
+                sQuery = ContentResolver.class.getMethod("query", Uri.class, String[].class,
+                        String.class, String[].class, String.class, signalClass);
+                sOperationCanceledClass = Class.forName("android.os.OperationCanceledException");
+            } catch (Exception e) {
+                Log.w(TAG, "Cancelable query not available", e);
+                sQuery = null;
+                sOperationCanceledClass = null;
+            }
+        }
+        return sQuery != null;
+    }
+
+    /**
+     * Return true if {@link #query} can be used.
+     */
+    public static boolean isAvailable() {
+        return lookUp();
+    }
+
+    public static Cursor query(ContentResolver resolver, Uri uri, String[] projection,
+            String selection, String[] selectionArgs, String sortOrder,
+            Object cancellationSignalObj) {
+        if (!lookUp()) {
+            throw new IllegalStateException("Cancelable query not available");
+        }
+        try {
+            return (Cursor) sQuery.invoke(resolver, uri, projection, selection, selectionArgs,
+                    sortOrder, cancellationSignalObj);
+        } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static boolean isOperationCanceledException(RuntimeException e) {
+        return lookUp() && sOperationCanceledClass.isInstance(e);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.content;
+
+import android.database.Cursor;
+
+import java.util.WeakHashMap;
+
+/**
+ * The string value of each row of a cursor, case folded, that an adapter's
+ * in-memory filter matches constraints against (see
+ * {@link android.support.v4.widget.CursorAdapter#setInMemoryFilter(int)
+ * CursorAdapter.setInMemoryFilter()}).  Computing them reads the whole
+ * cursor, so like a {@link CursorSignature} they are meant to be computed
+ * on the thread that loaded it, see
+ * {@link CursorLoader#setFilterValueConverter(Converter)}, and attached to
+ * the cursor for whoever displays it.
+ */
+public final class CursorFilterValues {
+    /**
+     * Turns the current row of a cursor into the string filter constraints
+     * are matched against, normally the same as the adapter's
+     * {@code convertToString()}.  Called on a background thread.
+     */
+    public interface Converter {
+        CharSequence convertToString(Cursor cursor);
+    }
+
+    private static final WeakHashMap<Cursor, CursorFilterValues> sAttached =
+            new WeakHashMap<Cursor, CursorFilterValues>();
+
+    final String[] mValues;
+    final Converter mConverter;
+
+    CursorFilterValues(String[] values, Converter converter) {
+        mValues = values;
+        mConverter = converter;
+    }
+
+    /**
+     * Return a converter giving the value of the named column.
+     */
+    public static Converter forColumn(final String columnName) {
+        return new Converter() {
+            @Override
+            public CharSequence convertToString(Cursor cursor) {
+                return cursor.getString(cursor.getColumnIndexOrThrow(columnName));
+            }
+        };
+    }
+
+    /**
+     * Read <var>cursor</var> and compute the values of its rows.  The cursor
+     * is left before its first row.
+     */
+    public static CursorFilterValues compute(Cursor cursor, Converter converter) {
+        final int count = cursor.getCount();
+        final String[] values = new String[count];
+        int pos = 0;
+        cursor.moveToPosition(-1);
+        while (pos < count && cursor.moveToNext()) {
+            values[pos++] = foldCase(converter.convertToString(cursor));
+        }
+        while (pos < count) {
+            values[pos++] = "";
+        }
+        cursor.moveToPosition(-1);
+        return new CursorFilterValues(values, converter);
+    }
+
+    /**
+     * Fold the case of <var>value</var> the way filter values are folded, so
+     * that it can be compared with them.  Each character is folded on its
+     * own, independently of the default locale, so that for example matching
+     * still works under a Turkish locale and the folded string has the same
+     * length.
+     *
+     * @return The folded string, or an empty string for null.
+     */
+    public static String foldCase(CharSequence value) {
+        if (value == null) {
+            return "";
+        }
+        final int length = value.length();
+        final char[] folded = new char[length];
+        for (int i=0; i<length; i++) {
+            folded[i] = Character.toLowerCase(Character.toUpperCase(value.charAt(i)));
+        }
+        return new String(folded);
+    }
+
+    /**
+     * Attach values to a cursor, for {@link #get(Cursor)}.
+     */
+    public static void attach(Cursor cursor, CursorFilterValues values) {
+        synchronized (sAttached) {
+            sAttached.put(cursor, values);
+        }
+    }
+
+    /**
+     * Return the values attached to <var>cursor</var>, or null.
+     */
+    public static CursorFilterValues get(Cursor cursor) {
+        synchronized (sAttached) {
+            return sAttached.get(cursor);
+        }
+    }
+
+    public int getCount() {
+        return mValues.length;
+    }
+
+    /**
+     * Return the folded value of the row at <var>position</var>.
+     */
+    public String getValue(int position) {
+        return mValues[position];
+    }
+
+    /**
+     * Return the converter the values were computed with.
+     */
+    public Converter getConverter() {
+        return mConverter;
+    }
+}
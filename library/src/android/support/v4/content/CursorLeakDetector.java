@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.content;
+
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.util.Log;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+
+/**
+ * Keeps track of cursors produced by loaders and reports the ones that are
+ * garbage collected without having been closed, along with where they were
+ * loaded.
+ */
+final class CursorLeakDetector {
+    static final String TAG = "CursorLeakDetector";
+
+    static final class Tracked extends WeakReference<Cursor> {
+        final Throwable mOrigin;
+        volatile boolean mClosed;
+
+        Tracked(Cursor cursor, Throwable origin, ReferenceQueue<Cursor> queue) {
+            super(cursor, queue);
+            mOrigin = origin;
+        }
+    }
+
+    static final class CloseObserver extends DataSetObserver {
+        final Tracked mTracked;
+
+        CloseObserver(Tracked tracked) {
+            mTracked = tracked;
+        }
+
+        @Override
+        public void onInvalidated() {
+            // Also called on deactivate, so check it really is closed.
+            Cursor cursor = mTracked.get();
+            if (cursor != null && cursor.isClosed()) {
+                mTracked.mClosed = true;
+            }
+        }
+    }
+
+    private static final ReferenceQueue<Cursor> sQueue = new ReferenceQueue<Cursor>();
+    // Keeps the references themselves reachable until they are enqueued.
+    private static final HashSet<Tracked> sTracked = new HashSet<Tracked>();
+    private static volatile boolean sEnabled;
+    private static int sLeakCount;
+
+    private CursorLeakDetector() {
+    }
+
+    static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Start tracking <var>cursor</var>, loaded by <var>loader</var>.
+     */
+    static void track(Cursor cursor, Loader<?> loader) {
+        if (!sEnabled || cursor == null) {
+            return;
+        }
+        Tracked tracked = new Tracked(cursor,
+                new Throwable("Cursor loaded by " + loader + " was never closed"), sQueue);
+        cursor.registerDataSetObserver(new CloseObserver(tracked));
+        synchronized (sTracked) {
+            sTracked.add(tracked);
+        }
+        reportLeaks();
+    }
+
+    /**
+     * Report the tracked cursors that have been collected without having
+     * been closed.
+     *
+     * @return The number of leaks found so far.
+     */
+    static int reportLeaks() {
+        synchronized (sTracked) {
+            Tracked tracked;
+            while ((tracked = (Tracked)sQueue.poll()) != null) {
+                sTracked.remove(tracked);
+                if (!tracked.mClosed) {
+                    sLeakCount++;
+                    Log.w(TAG, "Leaked cursor", tracked.mOrigin);
+                }
+            }
+            return sLeakCount;
+        }
+    }
+}
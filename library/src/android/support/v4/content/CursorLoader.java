@@ -16,10 +16,13 @@
 
 package android.support.v4.content;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
@@ -40,22 +43,85 @@ public class CursorLoader extends AsyncTaskLoader<Cursor> {
     String mSelection;
     String[] mSelectionArgs;
     String mSortOrder;
+    int mWindowSize;
+    boolean mCloseInBackground = true;
+    boolean mComputeSignatures;
+    CursorFilterValues.Converter mFilterValueConverter;
 
     Cursor mCursor;
 
     /* Runs on a worker thread */
     @Override
     public Cursor loadInBackground() {
-        Cursor cursor = getContext().getContentResolver().query(mUri, mProjection, mSelection,
-                mSelectionArgs, mSortOrder);
+        final CancellationSignal signal = getLoadCancellationSignal();
+        if (signal != null) {
+            signal.throwIfCanceled();
+        }
+        Cursor cursor = query(signal);
         if (cursor != null) {
-            // Ensure the cursor window is filled
-            cursor.getCount();
-            registerContentObserver(cursor, mObserver);
+            try {
+                // Don't spend time filling the window of a cursor that
+                // is no longer wanted.
+                if (signal != null) {
+                    signal.throwIfCanceled();
+                }
+                // Ensure the cursor window is filled
+                cursor.getCount();
+                if (signal != null) {
+                    signal.throwIfCanceled();
+                }
+                if (mComputeSignatures && !(cursor instanceof WindowedCursor)) {
+                    CursorSignature.attach(cursor, CursorSignature.compute(cursor,
+                            cursor.getColumnIndexOrThrow("_id")));
+                }
+                final CursorFilterValues.Converter converter = mFilterValueConverter;
+                if (converter != null && !(cursor instanceof WindowedCursor)) {
+                    if (signal != null) {
+                        signal.throwIfCanceled();
+                    }
+                    CursorFilterValues.attach(cursor,
+                            CursorFilterValues.compute(cursor, converter));
+                }
+                registerContentObserver(cursor, mObserver);
+                CursorLeakDetector.track(cursor, this);
+            } catch (RuntimeException ex) {
+                cursor.close();
+                throw ex;
+            }
         }
         return cursor;
     }
 
+    /**
+     * Runs the query.  On Android 4.1 or above the content provider is given
+     * the cancellation signal, so it can abort a query in progress.  Windowed
+     * queries are made of several provider queries; the signal is checked
+     * between them but not passed to the provider.
+     */
+    Cursor query(CancellationSignal signal) {
+        ContentResolver resolver = getContext().getContentResolver();
+        if (mWindowSize > 0) {
+            return WindowedCursor.query(resolver, mUri, mProjection, mSelection,
+                    mSelectionArgs, mSortOrder, mWindowSize, signal);
+        }
+        if (signal != null && android.os.Build.VERSION.SDK_INT >= 16
+                && ContentResolverCompatJellybean.isAvailable()) {
+            final Object signalObj = signal.getCancellationSignalObject();
+            if (signalObj != null) {
+                try {
+                    return ContentResolverCompatJellybean.query(resolver, mUri, mProjection,
+                            mSelection, mSelectionArgs, mSortOrder, signalObj);
+                } catch (RuntimeException ex) {
+                    if (ContentResolverCompatJellybean.isOperationCanceledException(ex)) {
+                        throw new OperationCanceledException();
+                    }
+                    throw ex;
+                }
+            }
+        }
+        return resolver.query(mUri, mProjection, mSelection, mSelectionArgs, mSortOrder);
+    }
+
     /**
      * Registers an observer to get notifications from the content provider
      * when the cursor needs to be refreshed.
@@ -69,9 +135,7 @@ public class CursorLoader extends AsyncTaskLoader<Cursor> {
     public void deliverResult(Cursor cursor) {
         if (isReset()) {
             // An async query came in while the loader is stopped
-            if (cursor != null) {
-                cursor.close();
-            }
+            closeCursor(cursor);
             return;
         }
         Cursor oldCursor = mCursor;
@@ -81,11 +145,86 @@ public class CursorLoader extends AsyncTaskLoader<Cursor> {
             super.deliverResult(cursor);
         }
 
-        if (oldCursor != null && oldCursor != cursor && !oldCursor.isClosed()) {
-            oldCursor.close();
+        if (oldCursor != null && oldCursor != cursor) {
+            // The callbacks have switched over to the new cursor by now.
+            closeCursor(oldCursor);
         }
     }
 
+    /**
+     * Close a cursor that is no longer used, on a background thread unless
+     * that has been turned off with {@link #setCloseInBackground(boolean)}.
+     */
+    void closeCursor(Cursor cursor) {
+        if (cursor == null || cursor.isClosed()) {
+            return;
+        }
+        if (mCloseInBackground) {
+            CursorReaper.close(cursor);
+        } else {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Set whether cursors this loader is done with are closed on a background
+     * thread, which is the default.  Closing a large cursor releases its
+     * memory synchronously, which can make the main thread miss frames when
+     * a list is refreshed.  A cursor is only closed once the loader's
+     * callbacks have been given its replacement, or has been reset.
+     */
+    public void setCloseInBackground(boolean closeInBackground) {
+        mCloseInBackground = closeInBackground;
+    }
+
+    public boolean getCloseInBackground() {
+        return mCloseInBackground;
+    }
+
+    /**
+     * Set whether a {@link CursorSignature} is computed for each loaded
+     * cursor, on the loading thread, so that an adapter can tell which rows
+     * changed from the previous result without reading the cursors on the
+     * main thread.  Not done for windowed loads, which would have to fetch
+     * every row.  Off by default.
+     */
+    public void setComputeSignatures(boolean compute) {
+        mComputeSignatures = compute;
+    }
+
+    public boolean getComputeSignatures() {
+        return mComputeSignatures;
+    }
+
+    /**
+     * Set how the {@link CursorFilterValues} of each loaded cursor are
+     * computed, on the loading thread, so that an adapter filtering in memory
+     * does not have to read the cursor on the main thread.  Not done for
+     * windowed loads, which would have to fetch every row.  The converter
+     * is kept by the loader, which outlives activities, so it must not
+     * reference one.
+     *
+     * @param converter The converter, or null to compute no values, the
+     * default.
+     */
+    public void setFilterValueConverter(CursorFilterValues.Converter converter) {
+        mFilterValueConverter = converter;
+    }
+
+    public CursorFilterValues.Converter getFilterValueConverter() {
+        return mFilterValueConverter;
+    }
+
+    /**
+     * Turn on reporting of cursors loaded by any CursorLoader that are
+     * garbage collected without having been closed.  Leaks are logged along
+     * with the loader that produced the cursor.  For debugging only; off
+     * by default.
+     */
+    public static void enableLeakDetection(boolean enabled) {
+        CursorLeakDetector.setEnabled(enabled);
+    }
+
     /**
      * Creates an empty unspecified CursorLoader.  You must follow this with
      * calls to {@link #setUri(Uri)}, {@link #setSelection(String)}, etc
@@ -141,9 +280,7 @@ public class CursorLoader extends AsyncTaskLoader<Cursor> {
 
     @Override
     public void onCanceled(Cursor cursor) {
-        if (cursor != null && !cursor.isClosed()) {
-            cursor.close();
-        }
+        closeCursor(cursor);
     }
 
     @Override
@@ -153,9 +290,7 @@ public class CursorLoader extends AsyncTaskLoader<Cursor> {
         // Ensure the loader is stopped
         onStopLoading();
 
-        if (mCursor != null && !mCursor.isClosed()) {
-            mCursor.close();
-        }
+        closeCursor(mCursor);
         mCursor = null;
     }
 
@@ -191,6 +326,29 @@ public class CursorLoader extends AsyncTaskLoader<Cursor> {
         mSelectionArgs = selectionArgs;
     }
 
+    /**
+     * Load the query in windows of <var>rows</var> rows instead of all at
+     * once.  The delivered cursor then only holds a few windows at a time,
+     * and fetches the others from the provider as rows in them are moved to.
+     * This keeps the first load of a large table fast and small, but requires
+     * a content provider backed by SQLite that accepts a <code>LIMIT</code>
+     * clause in the sort order and a <code>count(*)</code> projection, and a
+     * sort order giving every row a stable position.  If no sort order is
+     * set, rows are ordered by <code>_id</code>.
+     *
+     * @param rows Number of rows in a window, or 0 to load everything at once.
+     */
+    public void setWindowSize(int rows) {
+        if (rows < 0) {
+            throw new IllegalArgumentException("rows must not be negative: " + rows);
+        }
+        mWindowSize = rows;
+    }
+
+    public int getWindowSize() {
+        return mWindowSize;
+    }
+
     public String getSortOrder() {
         return mSortOrder;
     }
@@ -209,7 +367,23 @@ public class CursorLoader extends AsyncTaskLoader<Cursor> {
         writer.print(prefix); writer.print("mSelectionArgs=");
                 writer.println(Arrays.toString(mSelectionArgs));
         writer.print(prefix); writer.print("mSortOrder="); writer.println(mSortOrder);
+        if (mWindowSize > 0) {
+            writer.print(prefix); writer.print("mWindowSize="); writer.print(mWindowSize);
+            if (mCursor instanceof WindowedCursor) {
+                writer.print(" fetched=");
+                        writer.print(((WindowedCursor)mCursor).getFetchCount());
+            }
+            writer.println();
+        }
         writer.print(prefix); writer.print("mCursor="); writer.println(mCursor);
+        if (!mCloseInBackground) {
+            writer.print(prefix); writer.print("mCloseInBackground=");
+                    writer.println(mCloseInBackground);
+        }
+        if (CursorLeakDetector.isEnabled()) {
+            writer.print(prefix); writer.print("Leaked cursors: ");
+                    writer.println(CursorLeakDetector.reportLeaks());
+        }
         writer.print(prefix); writer.print("mContentChanged="); writer.println(mContentChanged);
     }
 }
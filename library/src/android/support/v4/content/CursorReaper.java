@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.content;
+
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+/**
+ * Closes cursors on a background thread.  Closing a large cursor releases
+ * its window synchronously, which can take long enough to drop frames if
+ * done on the main thread.
+ *
+ * <p>A cursor must only be handed over once nothing else uses it any more:
+ * after it has been replaced in whatever displays it, or if it was never
+ * delivered at all.
+ */
+final class CursorReaper {
+    private static final Object sLock = new Object();
+    private static Handler sHandler;
+
+    private CursorReaper() {
+    }
+
+    static void close(final Cursor cursor) {
+        if (cursor == null) {
+            return;
+        }
+        getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                // Closing also drops the cursor's content observers.
+                if (!cursor.isClosed()) {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
+    private static Handler getHandler() {
+        synchronized (sLock) {
+            if (sHandler == null) {
+                HandlerThread thread = new HandlerThread("CursorReaper",
+                        Process.THREAD_PRIORITY_BACKGROUND);
+                thread.start();
+                sHandler = new Handler(thread.getLooper());
+            }
+            return sHandler;
+        }
+    }
+}
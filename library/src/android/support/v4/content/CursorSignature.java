@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.content;
+
+import android.database.Cursor;
+
+import java.util.Arrays;
+import java.util.WeakHashMap;
+
+/**
+ * The row ids of a cursor along with a hash of the contents of each row,
+ * so that two results of the same query can be compared row by row without
+ * reading either cursor again.  Computing a signature reads the whole
+ * cursor, so it is meant to be done on the thread that loaded it, see
+ * {@link CursorLoader#setComputeSignatures(boolean)}; the signature is then
+ * attached to the cursor for whoever displays it.
+ */
+public final class CursorSignature {
+    private static final WeakHashMap<Cursor, CursorSignature> sAttached =
+            new WeakHashMap<Cursor, CursorSignature>();
+
+    final long[] mIds;
+    final int[] mHashes;
+
+    CursorSignature(long[] ids, int[] hashes) {
+        mIds = ids;
+        mHashes = hashes;
+    }
+
+    /**
+     * Read <var>cursor</var> and compute its signature.  The cursor is left
+     * before its first row.
+     *
+     * @param idColumn Index of the column holding the row ids.
+     */
+    public static CursorSignature compute(Cursor cursor, int idColumn) {
+        final int count = cursor.getCount();
+        final int columns = cursor.getColumnCount();
+        final long[] ids = new long[count];
+        final int[] hashes = new int[count];
+        int pos = 0;
+        cursor.moveToPosition(-1);
+        while (pos < count && cursor.moveToNext()) {
+            ids[pos] = cursor.getLong(idColumn);
+            int hash = 1;
+            for (int i=0; i<columns; i++) {
+                hash = hash*31 + hashColumn(cursor, i);
+            }
+            hashes[pos] = hash;
+            pos++;
+        }
+        cursor.moveToPosition(-1);
+        return new CursorSignature(ids, hashes);
+    }
+
+    private static int hashColumn(Cursor cursor, int column) {
+        if (cursor.isNull(column)) {
+            return 0;
+        }
+        try {
+            String value = cursor.getString(column);
+            return value != null ? value.hashCode() : 0;
+        } catch (RuntimeException e) {
+            // Blobs can't be read as strings from every cursor.
+            return Arrays.hashCode(cursor.getBlob(column));
+        }
+    }
+
+    /**
+     * Attach a signature to a cursor, for {@link #get(Cursor)}.
+     */
+    public static void attach(Cursor cursor, CursorSignature signature) {
+        synchronized (sAttached) {
+            sAttached.put(cursor, signature);
+        }
+    }
+
+    /**
+     * Return the signature attached to <var>cursor</var>, or null.
+     */
+    public static CursorSignature get(Cursor cursor) {
+        synchronized (sAttached) {
+            return sAttached.get(cursor);
+        }
+    }
+
+    public int getCount() {
+        return mIds.length;
+    }
+
+    public long getId(int position) {
+        return mIds[position];
+    }
+
+    public int getHash(int position) {
+        return mHashes[position];
+    }
+}
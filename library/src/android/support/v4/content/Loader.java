@@ -18,6 +18,7 @@ package android.support.v4.content;
 
 import android.content.Context;
 import android.database.ContentObserver;
+import android.net.Uri;
 import android.os.Handler;
 import android.support.v4.util.DebugUtils;
 
@@ -39,6 +40,7 @@ public class Loader<D> {
     boolean mAbandoned = false;
     boolean mReset = true;
     boolean mContentChanged = false;
+    boolean mResultCacheable = false;
 
     public final class ForceLoadContentObserver extends ContentObserver {
         public ForceLoadContentObserver() {
@@ -318,6 +320,40 @@ public class Loader<D> {
         }
     }
 
+    /**
+     * Set whether the results of this loader may be kept in the process-wide
+     * loader result cache, see
+     * {@link android.support.v4.app.LoaderResultCache}.  When the cache is
+     * enabled, a {@link android.support.v4.app.LoaderManager} initializing a
+     * cacheable loader delivers a cached result of an earlier loader of the
+     * same class, arguments and {@link #getResultCacheUri() URI} right away,
+     * while this loader loads fresh data.
+     *
+     * <p>Only mark loaders whose results are immutable and can be shared
+     * between screens.  Results that hold resources released by their loader,
+     * such as a {@link android.database.Cursor}, are never cached.
+     */
+    public void setResultCacheable(boolean cacheable) {
+        mResultCacheable = cacheable;
+    }
+
+    /**
+     * Return whether the results of this loader may be cached, see
+     * {@link #setResultCacheable(boolean)}.
+     */
+    public boolean isResultCacheable() {
+        return mResultCacheable;
+    }
+
+    /**
+     * Return the content URI this loader reads from, if any.  Loaders of the
+     * same class and arguments only share cached results when their URIs
+     * match.  The default implementation returns null.
+     */
+    public Uri getResultCacheUri() {
+        return null;
+    }
+
     /**
      * For debugging, converts an instance of the Loader's data class to
      * a string that can be printed.  Must handle a null data.
@@ -354,5 +390,9 @@ public class Loader<D> {
                 writer.print(" mContentChanged="); writer.print(mContentChanged);
                 writer.print(" mAbandoned="); writer.print(mAbandoned);
                 writer.print(" mReset="); writer.println(mReset);
+        if (mResultCacheable) {
+            writer.print(prefix); writer.print("mResultCacheable=");
+                    writer.println(mResultCacheable);
+        }
     }
 }
\ No newline at end of file
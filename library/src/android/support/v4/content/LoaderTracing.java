@@ -0,0 +1,356 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.content;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Timing of the loads performed by {@link AsyncTaskLoader}s, for finding
+ * out which loaders hold up the display of a screen.  Each finished or
+ * canceled load is reported to the registered {@link Listener}s as a
+ * {@link LoadRecord}, and aggregated per loader class and id into
+ * {@link Histogram}s; ids alone are reused by every screen.
+ *
+ * <p>Tracing is off by default.  All methods must be called from the
+ * process's main thread, which is also where listeners are called.
+ */
+public final class LoaderTracing {
+    /**
+     * Receives a record of each load once it is done.
+     */
+    public interface Listener {
+        void onLoadTraced(LoadRecord record);
+    }
+
+    /**
+     * Timing of a single load, in milliseconds.  Phases that did not happen,
+     * because the load was canceled before it ran, are reported as -1.
+     */
+    public static final class LoadRecord {
+        final int mLoaderId;
+        final Class<?> mLoaderClass;
+        final long mThrottleWait;
+        final long mQueueWait;
+        final long mLoadTime;
+        final long mDeliveryLatency;
+        final boolean mCanceled;
+
+        LoadRecord(int loaderId, Class<?> loaderClass, long throttleWait, long queueWait,
+                long loadTime, long deliveryLatency, boolean canceled) {
+            mLoaderId = loaderId;
+            mLoaderClass = loaderClass;
+            mThrottleWait = throttleWait;
+            mQueueWait = queueWait;
+            mLoadTime = loadTime;
+            mDeliveryLatency = deliveryLatency;
+            mCanceled = canceled;
+        }
+
+        public int getLoaderId() {
+            return mLoaderId;
+        }
+
+        public Class<?> getLoaderClass() {
+            return mLoaderClass;
+        }
+
+        /**
+         * Time from the load being requested until it was handed to the
+         * executor: the update throttle, plus waiting for a previous load
+         * being canceled to finish.
+         */
+        public long getThrottleWait() {
+            return mThrottleWait;
+        }
+
+        /**
+         * Time the load spent waiting in the executor's queue.
+         */
+        public long getQueueWait() {
+            return mQueueWait;
+        }
+
+        /**
+         * Time spent in {@link AsyncTaskLoader#loadInBackground}.
+         */
+        public long getLoadTime() {
+            return mLoadTime;
+        }
+
+        /**
+         * Time from the background load finishing until the main thread
+         * dispatched its result to the loader.  This does not include the
+         * loader's delivery to its listener, such as
+         * {@link android.support.v4.app.LoaderManager.LoaderCallbacks#onLoadFinished
+         * LoaderCallbacks.onLoadFinished()}.
+         */
+        public long getDeliveryLatency() {
+            return mDeliveryLatency;
+        }
+
+        public boolean isCanceled() {
+            return mCanceled;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(128);
+            sb.append("LoadRecord{#");
+            sb.append(mLoaderId);
+            sb.append(' ');
+            sb.append(mLoaderClass.getSimpleName());
+            sb.append(" throttle=");
+            sb.append(mThrottleWait);
+            sb.append(" queue=");
+            sb.append(mQueueWait);
+            sb.append(" load=");
+            sb.append(mLoadTime);
+            sb.append(" delivery=");
+            sb.append(mDeliveryLatency);
+            if (mCanceled) {
+                sb.append(" canceled");
+            }
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Distribution of durations, in buckets of powers of two milliseconds:
+     * bucket 0 holds durations under 1ms, bucket <var>i</var> durations from
+     * 2<sup>i-1</sup> up to 2<sup>i</sup>ms, and the last bucket everything
+     * longer.
+     */
+    public static final class Histogram {
+        public static final int NUM_BUCKETS = 16;
+
+        final int[] mBuckets = new int[NUM_BUCKETS];
+        int mCount;
+        long mTotal;
+        long mMax;
+
+        void add(long duration) {
+            if (duration < 0) {
+                return;
+            }
+            int bucket = 0;
+            while (bucket < NUM_BUCKETS-1 && duration >= (1L << bucket)) {
+                bucket++;
+            }
+            mBuckets[bucket]++;
+            mCount++;
+            mTotal += duration;
+            if (duration > mMax) {
+                mMax = duration;
+            }
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        public int getBucketCount(int bucket) {
+            return mBuckets[bucket];
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public long getAverage() {
+            return mCount > 0 ? mTotal / mCount : 0;
+        }
+
+        /**
+         * Return the upper bound of the bucket holding the given percentile
+         * of durations, or 0 if nothing has been recorded.
+         *
+         * @param percentile A percentile from 0 to 100.
+         */
+        public long getPercentile(int percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            final int target = (int)Math.ceil(mCount * percentile / 100.0);
+            int seen = 0;
+            for (int i=0; i<NUM_BUCKETS-1; i++) {
+                seen += mBuckets[i];
+                if (seen >= target) {
+                    return 1L << i;
+                }
+            }
+            return mMax;
+        }
+
+        void dump(PrintWriter writer) {
+            writer.print("n="); writer.print(mCount);
+                    writer.print(" avg="); writer.print(getAverage());
+                    writer.print(" p50="); writer.print(getPercentile(50));
+                    writer.print(" p90="); writer.print(getPercentile(90));
+                    writer.print(" max="); writer.println(mMax);
+        }
+    }
+
+    /**
+     * Aggregated timing of all loads of the loaders of a given class and id.
+     */
+    public static final class LoaderStats {
+        final Histogram mThrottleWait = new Histogram();
+        final Histogram mQueueWait = new Histogram();
+        final Histogram mLoadTime = new Histogram();
+        final Histogram mDeliveryLatency = new Histogram();
+        int mCancelCount;
+
+        void add(LoadRecord record) {
+            mThrottleWait.add(record.mThrottleWait);
+            mQueueWait.add(record.mQueueWait);
+            mLoadTime.add(record.mLoadTime);
+            mDeliveryLatency.add(record.mDeliveryLatency);
+            if (record.mCanceled) {
+                mCancelCount++;
+            }
+        }
+
+        public Histogram getThrottleWait() {
+            return mThrottleWait;
+        }
+
+        public Histogram getQueueWait() {
+            return mQueueWait;
+        }
+
+        public Histogram getLoadTime() {
+            return mLoadTime;
+        }
+
+        public Histogram getDeliveryLatency() {
+            return mDeliveryLatency;
+        }
+
+        public int getCancelCount() {
+            return mCancelCount;
+        }
+    }
+
+    private static boolean sEnabled;
+    private static final ArrayList<Listener> sListeners = new ArrayList<Listener>();
+    private static final HashMap<StatsKey, LoaderStats> sStats = new HashMap<StatsKey, LoaderStats>();
+
+    static final class StatsKey {
+        final Class<?> mLoaderClass;
+        final int mLoaderId;
+
+        StatsKey(Class<?> loaderClass, int loaderId) {
+            mLoaderClass = loaderClass;
+            mLoaderId = loaderId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof StatsKey)) {
+                return false;
+            }
+            StatsKey other = (StatsKey) o;
+            return mLoaderClass == other.mLoaderClass && mLoaderId == other.mLoaderId;
+        }
+
+        @Override
+        public int hashCode() {
+            return mLoaderClass.hashCode() * 31 + mLoaderId;
+        }
+    }
+
+    private LoaderTracing() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    public static void addListener(Listener listener) {
+        if (!sListeners.contains(listener)) {
+            sListeners.add(listener);
+        }
+    }
+
+    public static void removeListener(Listener listener) {
+        sListeners.remove(listener);
+    }
+
+    /**
+     * Return the aggregated timing of the loaders of the given class with
+     * the given id, or null if none of them has been traced.
+     */
+    public static LoaderStats getStats(Class<?> loaderClass, int loaderId) {
+        return sStats.get(new StatsKey(loaderClass, loaderId));
+    }
+
+    /**
+     * Forget all aggregated timing.
+     */
+    public static void reset() {
+        sStats.clear();
+    }
+
+    static void record(Loader<?> loader, long requestTime, long executeTime, long startTime,
+            long endTime, long deliverTime, boolean canceled) {
+        if (!sEnabled) {
+            return;
+        }
+        final long throttleWait = executeTime > 0 ? executeTime - requestTime : -1;
+        final long queueWait = startTime > 0 ? startTime - executeTime : -1;
+        final long loadTime = endTime > 0 ? endTime - startTime : -1;
+        final long deliveryLatency = endTime > 0 ? deliverTime - endTime : -1;
+        LoadRecord record = new LoadRecord(loader.getId(), loader.getClass(), throttleWait,
+                queueWait, loadTime, deliveryLatency, canceled);
+
+        final StatsKey key = new StatsKey(record.mLoaderClass, record.mLoaderId);
+        LoaderStats stats = sStats.get(key);
+        if (stats == null) {
+            stats = new LoaderStats();
+            sStats.put(key, stats);
+        }
+        stats.add(record);
+        for (int i=sListeners.size()-1; i>=0; i--) {
+            sListeners.get(i).onLoadTraced(record);
+        }
+    }
+
+    public static void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix); writer.print("Loader tracing: ");
+                writer.println(sEnabled ? "enabled" : "disabled");
+        for (Map.Entry<StatsKey, LoaderStats> entry : sStats.entrySet()) {
+            LoaderStats stats = entry.getValue();
+            writer.print(prefix); writer.print("  ");
+                    writer.print(entry.getKey().mLoaderClass.getName());
+                    writer.print(" #"); writer.print(entry.getKey().mLoaderId);
+                    writer.print(": canceled="); writer.println(stats.mCancelCount);
+            writer.print(prefix); writer.print("    throttle: "); stats.mThrottleWait.dump(writer);
+            writer.print(prefix); writer.print("    queue: "); stats.mQueueWait.dump(writer);
+            writer.print(prefix); writer.print("    load: "); stats.mLoadTime.dump(writer);
+            writer.print(prefix); writer.print("    delivery: ");
+                    stats.mDeliveryLatency.dump(writer);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.content;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+
+/**
+ * Executor running tasks on a bounded set of background threads, taking
+ * queued tasks in order of priority: {@link AsyncTaskLoader#PRIORITY_HIGH}
+ * first and {@link AsyncTaskLoader#PRIORITY_LOW} last.  Tasks of the same
+ * priority run in the order they were submitted.
+ *
+ * <p>To keep a steady stream of high priority work from starving the rest,
+ * a task that has been waiting for longer than the maximum wait given at
+ * construction is taken ahead of any higher priority task.
+ *
+ * <p>{@link AsyncTaskLoader} submits its loads with the loader's priority,
+ * see {@link AsyncTaskLoader#setPriority(int)}; other tasks given to
+ * {@link #execute(Runnable)} run at {@link AsyncTaskLoader#PRIORITY_NORMAL}.
+ */
+public class PriorityExecutor implements Executor {
+    static final int NUM_PRIORITIES = AsyncTaskLoader.PRIORITY_HIGH + 1;
+    static final long KEEP_ALIVE = 1000;
+
+    static final class Entry {
+        final Runnable mRunnable;
+        final long mEnqueueTime;
+
+        Entry(Runnable runnable, long enqueueTime) {
+            mRunnable = runnable;
+            mEnqueueTime = enqueueTime;
+        }
+    }
+
+    final class Worker implements Runnable {
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            boolean completed = false;
+            try {
+                Runnable r;
+                while ((r = take()) != null) {
+                    // Don't let an interrupt meant for a canceled task
+                    // leak into the next one.
+                    Thread.interrupted();
+                    r.run();
+                }
+                completed = true;
+            } finally {
+                if (!completed) {
+                    // The task threw; let the thread die as usual, but
+                    // account for it so a replacement can be started.
+                    synchronized (mLock) {
+                        mThreadCount--;
+                    }
+                }
+            }
+        }
+    }
+
+    final class PriorityView implements Executor {
+        final int mPriority;
+
+        PriorityView(int priority) {
+            mPriority = priority;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            PriorityExecutor.this.execute(command, mPriority);
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final String mName;
+    private final int mMaxThreads;
+    private final long mMaxWait;
+    private final ArrayList<LinkedList<Entry>> mQueues;
+    private final int[] mMaxDepths = new int[NUM_PRIORITIES];
+    private final PriorityView[] mViews = new PriorityView[NUM_PRIORITIES];
+
+    private int mThreadCount;
+    private int mIdleCount;
+    private int mThreadNumber;
+    private long mPromotedCount;
+
+    /**
+     * @param name Name used for the executor's threads.
+     * @param maxThreads Maximum number of threads running tasks at once.
+     * @param maxWaitMillis Time after which a waiting task is taken ahead of
+     * higher priority tasks.
+     */
+    public PriorityExecutor(String name, int maxThreads, long maxWaitMillis) {
+        if (maxThreads <= 0) {
+            throw new IllegalArgumentException("maxThreads must be positive: " + maxThreads);
+        }
+        mName = name;
+        mMaxThreads = maxThreads;
+        mMaxWait = maxWaitMillis;
+        mQueues = new ArrayList<LinkedList<Entry>>(NUM_PRIORITIES);
+        for (int i=0; i<NUM_PRIORITIES; i++) {
+            mQueues.add(new LinkedList<Entry>());
+            mViews[i] = new PriorityView(i);
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        execute(command, AsyncTaskLoader.PRIORITY_NORMAL);
+    }
+
+    /**
+     * Queue <var>command</var> to run at the given priority.
+     */
+    public void execute(Runnable command, int priority) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        checkPriority(priority);
+        synchronized (mLock) {
+            LinkedList<Entry> queue = mQueues.get(priority);
+            queue.addLast(new Entry(command, SystemClock.uptimeMillis()));
+            if (queue.size() > mMaxDepths[priority]) {
+                mMaxDepths[priority] = queue.size();
+            }
+            if (mIdleCount > 0) {
+                mLock.notify();
+            }
+            // Idle threads may not have woken up for earlier tasks yet, so
+            // compare against everything that is waiting.
+            int waiting = 0;
+            for (int i=0; i<NUM_PRIORITIES; i++) {
+                waiting += mQueues.get(i).size();
+            }
+            if (waiting > mIdleCount && mThreadCount < mMaxThreads) {
+                mThreadCount++;
+                Thread t = new Thread(new Worker(), mName + " #" + (++mThreadNumber));
+                t.start();
+            }
+        }
+    }
+
+    /**
+     * Return an executor that queues everything given to it on this
+     * executor at the given priority.
+     */
+    public Executor forPriority(int priority) {
+        checkPriority(priority);
+        return mViews[priority];
+    }
+
+    /**
+     * Return the number of tasks currently waiting at the given priority.
+     */
+    public int getQueueDepth(int priority) {
+        checkPriority(priority);
+        synchronized (mLock) {
+            return mQueues.get(priority).size();
+        }
+    }
+
+    /**
+     * Return the largest number of tasks that have been waiting at the given
+     * priority at the same time.
+     */
+    public int getMaxQueueDepth(int priority) {
+        checkPriority(priority);
+        synchronized (mLock) {
+            return mMaxDepths[priority];
+        }
+    }
+
+    /**
+     * Return the number of tasks that were taken ahead of higher priority
+     * tasks because they had been waiting for too long.
+     */
+    public long getPromotedCount() {
+        synchronized (mLock) {
+            return mPromotedCount;
+        }
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        synchronized (mLock) {
+            writer.print(prefix); writer.print("mThreadCount="); writer.print(mThreadCount);
+                    writer.print(" mIdleCount="); writer.print(mIdleCount);
+                    writer.print(" mPromotedCount="); writer.println(mPromotedCount);
+            for (int i=NUM_PRIORITIES-1; i>=0; i--) {
+                writer.print(prefix); writer.print("Priority "); writer.print(i);
+                        writer.print(": depth="); writer.print(mQueues.get(i).size());
+                        writer.print(" maxDepth="); writer.println(mMaxDepths[i]);
+            }
+        }
+    }
+
+    Runnable take() {
+        synchronized (mLock) {
+            long idleSince = 0;
+            while (true) {
+                Entry entry = poll();
+                if (entry != null) {
+                    return entry.mRunnable;
+                }
+                final long now = SystemClock.uptimeMillis();
+                if (idleSince == 0) {
+                    idleSince = now;
+                } else if (now - idleSince >= KEEP_ALIVE) {
+                    mThreadCount--;
+                    return null;
+                }
+                mIdleCount++;
+                try {
+                    mLock.wait(KEEP_ALIVE - (now - idleSince));
+                } catch (InterruptedException e) {
+                    // Just check the queues again.
+                } finally {
+                    mIdleCount--;
+                }
+            }
+        }
+    }
+
+    private Entry poll() {
+        // A task waiting for too long at a lower priority goes first;
+        // otherwise take from the highest priority that has anything.
+        final long now = SystemClock.uptimeMillis();
+        int starved = -1;
+        long oldest = Long.MAX_VALUE;
+        int highest = -1;
+        for (int i=NUM_PRIORITIES-1; i>=0; i--) {
+            final LinkedList<Entry> queue = mQueues.get(i);
+            if (queue.isEmpty()) {
+                continue;
+            }
+            if (highest < 0) {
+                highest = i;
+                continue;
+            }
+            final long enqueueTime = queue.getFirst().mEnqueueTime;
+            if (now - enqueueTime > mMaxWait && enqueueTime < oldest) {
+                starved = i;
+                oldest = enqueueTime;
+            }
+        }
+        if (starved >= 0 && oldest < mQueues.get(highest).getFirst().mEnqueueTime) {
+            mPromotedCount++;
+            return mQueues.get(starved).removeFirst();
+        }
+        return highest >= 0 ? mQueues.get(highest).removeFirst() : null;
+    }
+
+    private static void checkPriority(int priority) {
+        if (priority < 0 || priority >= NUM_PRIORITIES) {
+            throw new IllegalArgumentException("Unknown priority: " + priority);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.content;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.os.CancellationSignal;
+import android.util.Log;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+/**
+ * An {@link AsyncTaskLoader} that can report results in pages while a load
+ * is still running, so large data sets can be shown as soon as the first
+ * page is ready.
+ *
+ * <p>The load calls {@link #publishPartialResult(Object)} from
+ * {@link #loadInBackground()} for each page.  Pages are
+ * folded into the result so far with {@link #merge(Object, Object)} on the
+ * background thread, and that result is delivered like any other, through
+ * {@link android.support.v4.app.LoaderManager.LoaderCallbacks#onLoadFinished
+ * LoaderCallbacks.onLoadFinished()}.  Callbacks can tell a partial result
+ * from the final one with {@link #isPartialResult()}.  If pages are
+ * published faster than they can be delivered, only the most recent result
+ * is delivered.  The value returned by the load is the final result.
+ *
+ * <p>Since each delivered result replaces the previous one, every result
+ * handed out, partial or final, must be a new object:
+ * {@link #merge(Object, Object)} must not modify its <var>accumulated</var>
+ * argument, and the load must not return the last published result as is.
+ */
+public abstract class StreamingAsyncTaskLoader<D> extends AsyncTaskLoader<D> {
+    static final String TAG = "StreamingAsyncTaskLoader";
+    static final boolean DEBUG = false;
+
+    /**
+     * Default number of items loads are asked to put in a page.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    final Runnable mDeliverPartial = new Runnable() {
+        @Override
+        public void run() {
+            final D data;
+            final CancellationSignal signal;
+            synchronized (mPartialLock) {
+                data = mPendingPartial;
+                signal = mPendingSignal;
+                mPendingPartial = null;
+                mPendingSignal = null;
+            }
+            dispatchPartialResult(signal, data);
+        }
+    };
+
+    final Object mPartialLock = new Object();
+
+    // Written by the loading thread, delivered on the main thread.
+    D mPendingPartial;
+    CancellationSignal mPendingSignal;
+
+    // Only touched by the loading thread.
+    volatile CancellationSignal mLoadingSignal;
+    D mAccumulated;
+
+    int mPageSize = DEFAULT_PAGE_SIZE;
+    boolean mPartial;
+    boolean mDeliveringPartial;
+    int mPartialCount;
+
+    public StreamingAsyncTaskLoader(Context context) {
+        super(context);
+    }
+
+    /**
+     * Set the number of items loads should put in a page.  This is only a
+     * hint for {@link #loadInBackground()}; the loader
+     * itself does not look at the size of pages.
+     */
+    public void setPageSize(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        mPageSize = pageSize;
+    }
+
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    /**
+     * Return true if the result most recently delivered is partial, that is
+     * the load producing it is still running.  Only meaningful on the main
+     * thread while handling a delivered result.
+     */
+    public boolean isPartialResult() {
+        return mPartial;
+    }
+
+    /**
+     * Fold a newly loaded page into the results published so far.  Called
+     * on the loading thread.
+     *
+     * @param accumulated The result so far, or null for the first page.
+     * Must not be modified, it may already have been delivered.
+     * @param page The page just loaded.
+     * @return A new object holding the contents of both.
+     */
+    protected abstract D merge(D accumulated, D page);
+
+    /**
+     * Publish a page of the result of the load in progress.  Must be called
+     * from {@link #loadInBackground()}.
+     */
+    protected final void publishPartialResult(D page) {
+        final CancellationSignal signal = mLoadingSignal;
+        if (signal == null) {
+            throw new IllegalStateException("publishPartialResult called outside of a load");
+        }
+        if (signal.isCanceled()) {
+            return;
+        }
+        mAccumulated = merge(mAccumulated, page);
+        final boolean post;
+        synchronized (mPartialLock) {
+            post = mPendingSignal == null;
+            mPendingPartial = mAccumulated;
+            mPendingSignal = signal;
+        }
+        if (post) {
+            mMainHandler.post(mDeliverPartial);
+        }
+    }
+
+    /**
+     * Return the result published so far by the load in progress, or null.
+     * Must be called from {@link #loadInBackground()}.
+     */
+    protected final D getPublishedResult() {
+        return mAccumulated;
+    }
+
+    @Override
+    protected D onLoadInBackground(CancellationSignal signal) {
+        mLoadingSignal = signal;
+        mAccumulated = null;
+        try {
+            return super.onLoadInBackground(signal);
+        } finally {
+            mLoadingSignal = null;
+            mAccumulated = null;
+        }
+    }
+
+    void dispatchPartialResult(CancellationSignal signal, D data) {
+        LoadTask task = mTask;
+        if (signal == null || task == null || task.signal != signal || signal.isCanceled()
+                || isAbandoned() || isReset()) {
+            // The load this came from has been replaced or canceled.
+            if (DEBUG) Log.v(TAG, "Dropping stale partial result");
+            return;
+        }
+        mPartialCount++;
+        if (isStarted()) {
+            if (DEBUG) Log.v(TAG, "Delivering partial result");
+            mDeliveringPartial = true;
+            try {
+                deliverResult(data);
+            } finally {
+                mDeliveringPartial = false;
+            }
+        }
+    }
+
+    @Override
+    public void deliverResult(D data) {
+        mPartial = mDeliveringPartial;
+        super.deliverResult(data);
+    }
+
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.print(prefix); writer.print("mPageSize="); writer.print(mPageSize);
+                writer.print(" mPartial="); writer.print(mPartial);
+                writer.print(" mPartialCount="); writer.println(mPartialCount);
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.content;
+
+import android.content.ContentResolver;
+import android.database.AbstractCursor;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.os.CancellationSignal;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A cursor over a large query that only holds a few windows of rows at a
+ * time.  Each window is a separate query of the content provider for a page
+ * of rows, limited with a <code>LIMIT</code>/<code>OFFSET</code> clause added
+ * to the sort order, and is fetched when a row in it is first moved to.
+ *
+ * <p>This needs a provider backed by SQLite that passes the sort order and
+ * projection through to the database: the total number of rows is found
+ * with a <code>count(*)</code> projection.  The sort order must give every
+ * row a stable position, or rows may be skipped or repeated between pages.
+ *
+ * <p>When a window is moved into, the windows on either side of it are
+ * fetched in the background, so scrolling through the rows in order rarely
+ * waits for the provider; only a jump to a distant row queries on the
+ * calling thread.  Rows that are counted but missing from their window,
+ * because rows were deleted since the count, read as null until the cursor
+ * is requeried.
+ */
+final class WindowedCursor extends AbstractCursor {
+    static final int MAX_WINDOWS = 3;
+
+    private static Executor sPrefetchExecutor;
+
+    private final ContentResolver mResolver;
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final String mSortOrder;
+    private final int mWindowSize;
+    private int mCount;
+
+    // Loaded windows, most recently used first.
+    private final Cursor[] mWindows = new Cursor[MAX_WINDOWS];
+    private final int[] mWindowStarts = new int[MAX_WINDOWS];
+    private int mNumWindows;
+
+    private final ContentObserver mForwarder;
+    private String[] mColumnNames;
+    private Cursor mCurrent;
+    private int mCurrentStart = -1;
+    private int mFetchCount;
+
+    // Windows fetched in the background and not used yet, and the windows
+    // being fetched; both by start.  Guarded by mLock, as are mClosed and
+    // mGeneration, which tells results fetched before a requery apart.
+    private final Object mLock = new Object();
+    private final SparseArray<Cursor> mPrefetched = new SparseArray<Cursor>();
+    private final SparseBooleanArray mPrefetching = new SparseBooleanArray();
+    private boolean mClosed;
+    private int mGeneration;
+
+    WindowedCursor(ContentResolver resolver, Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder, int windowSize) {
+        mResolver = resolver;
+        mUri = uri;
+        mProjection = projection;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mSortOrder = sortOrder != null ? sortOrder : "_id";
+        mWindowSize = windowSize;
+        Looper looper = Looper.myLooper();
+        mForwarder = new ContentObserver(looper != null ? new Handler(looper) : null) {
+            @Override
+            public boolean deliverSelfNotifications() {
+                return true;
+            }
+
+            @Override
+            public void onChange(boolean selfChange) {
+                WindowedCursor.this.onChange(selfChange);
+            }
+        };
+    }
+
+    /**
+     * Count the rows of the query and fetch and fill its first window,
+     * checking <var>signal</var> in between.
+     *
+     * @return The cursor, or null if the provider returned no cursor.
+     */
+    static WindowedCursor query(ContentResolver resolver, Uri uri, String[] projection,
+            String selection, String[] selectionArgs, String sortOrder, int windowSize,
+            CancellationSignal signal) {
+        WindowedCursor cursor = new WindowedCursor(resolver, uri, projection, selection,
+                selectionArgs, sortOrder, windowSize);
+        if (!cursor.countRows()) {
+            return null;
+        }
+        try {
+            if (signal != null) {
+                signal.throwIfCanceled();
+            }
+            final Cursor first = cursor.window(0);
+            // Fill the window here, on the loading thread, rather than at
+            // the first move on the main thread; getCount() on this cursor
+            // only returns the count made above.
+            first.getCount();
+            if (signal != null) {
+                signal.throwIfCanceled();
+            }
+            cursor.mColumnNames = first.getColumnNames();
+        } catch (RuntimeException ex) {
+            cursor.close();
+            throw ex;
+        }
+        return cursor;
+    }
+
+    private boolean countRows() {
+        Cursor countCursor = mResolver.query(mUri, new String[] { "count(*)" }, mSelection,
+                mSelectionArgs, null);
+        if (countCursor == null) {
+            return false;
+        }
+        try {
+            mCount = countCursor.moveToFirst() ? countCursor.getInt(0) : 0;
+        } finally {
+            countCursor.close();
+        }
+        return true;
+    }
+
+    /**
+     * Return the number of windows fetched from the provider so far.
+     */
+    int getFetchCount() {
+        return mFetchCount;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        if (mColumnNames == null) {
+            mColumnNames = window(0).getColumnNames();
+        }
+        return mColumnNames;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        final int start = newPosition - newPosition % mWindowSize;
+        final Cursor window = window(start);
+        if (start != mCurrentStart) {
+            mCurrentStart = start;
+            prefetch(start + mWindowSize);
+            prefetch(start - mWindowSize);
+        }
+        // A window can come back short if rows were deleted after they were
+        // counted; the missing rows read as null rather than failing the
+        // move, which adapters do not expect for a position below the count.
+        mCurrent = window.moveToPosition(newPosition - start) ? window : null;
+        return true;
+    }
+
+    private Cursor fetch(int start) {
+        return mResolver.query(mUri, mProjection, mSelection, mSelectionArgs,
+                mSortOrder + " LIMIT " + mWindowSize + " OFFSET " + start);
+    }
+
+    private static synchronized Executor getPrefetchExecutor() {
+        if (sPrefetchExecutor == null) {
+            sPrefetchExecutor = new PriorityExecutor("WindowedCursor", 1, Long.MAX_VALUE);
+        }
+        return sPrefetchExecutor;
+    }
+
+    /**
+     * Start fetching the window at <var>start</var> in the background,
+     * unless it is out of range, loaded, or already on its way.
+     */
+    private void prefetch(final int start) {
+        if (start < 0 || start >= mCount) {
+            return;
+        }
+        for (int i=0; i<mNumWindows; i++) {
+            if (mWindowStarts[i] == start) {
+                return;
+            }
+        }
+        final int generation;
+        synchronized (mLock) {
+            if (mClosed || mPrefetching.get(start) || mPrefetched.get(start) != null) {
+                return;
+            }
+            // Only keep windows next to the one in use.
+            for (int i=mPrefetched.size()-1; i>=0; i--) {
+                final int key = mPrefetched.keyAt(i);
+                if (Math.abs(key - mCurrentStart) > mWindowSize) {
+                    mPrefetched.valueAt(i).close();
+                    mPrefetched.removeAt(i);
+                }
+            }
+            mPrefetching.put(start, true);
+            generation = mGeneration;
+        }
+        getPrefetchExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                Cursor window = null;
+                try {
+                    window = fetch(start);
+                    if (window != null) {
+                        // Fill the window here rather than on first use.
+                        window.getCount();
+                    }
+                } catch (RuntimeException e) {
+                    // Fetched again on the calling thread when needed.
+                    if (window != null) {
+                        window.close();
+                    }
+                    window = null;
+                }
+                synchronized (mLock) {
+                    mPrefetching.delete(start);
+                    if (window != null) {
+                        if (mClosed || generation != mGeneration) {
+                            window.close();
+                        } else {
+                            mPrefetched.put(start, window);
+                        }
+                    }
+                    mLock.notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * Take the window at <var>start</var> if it has been prefetched, waiting
+     * for it if it is being fetched.
+     */
+    private Cursor takePrefetched(int start) {
+        synchronized (mLock) {
+            try {
+                while (mPrefetching.get(start)) {
+                    mLock.wait();
+                }
+            } catch (InterruptedException e) {
+                // Fetch it here instead.
+            }
+            final Cursor window = mPrefetched.get(start);
+            if (window != null) {
+                mPrefetched.delete(start);
+            }
+            return window;
+        }
+    }
+
+    /**
+     * Return the window starting at <var>start</var>, fetching it if needed
+     * and evicting the least recently used one if all slots are taken.
+     */
+    private Cursor window(int start) {
+        for (int i=0; i<mNumWindows; i++) {
+            if (mWindowStarts[i] == start) {
+                final Cursor window = mWindows[i];
+                System.arraycopy(mWindows, 0, mWindows, 1, i);
+                System.arraycopy(mWindowStarts, 0, mWindowStarts, 1, i);
+                mWindows[0] = window;
+                mWindowStarts[0] = start;
+                return window;
+            }
+        }
+
+        Cursor window = takePrefetched(start);
+        if (window == null) {
+            window = fetch(start);
+        }
+        if (window == null) {
+            throw new IllegalStateException("Provider returned no cursor for rows "
+                    + start + " of " + mUri);
+        }
+        mFetchCount++;
+        window.registerContentObserver(mForwarder);
+
+        if (mNumWindows == MAX_WINDOWS) {
+            final Cursor evicted = mWindows[MAX_WINDOWS-1];
+            evicted.unregisterContentObserver(mForwarder);
+            evicted.close();
+            mNumWindows--;
+        }
+        System.arraycopy(mWindows, 0, mWindows, 1, mNumWindows);
+        System.arraycopy(mWindowStarts, 0, mWindowStarts, 1, mNumWindows);
+        mWindows[0] = window;
+        mWindowStarts[0] = start;
+        mNumWindows++;
+        return window;
+    }
+
+    @Override
+    public String getString(int column) {
+        return mCurrent != null ? mCurrent.getString(column) : null;
+    }
+
+    @Override
+    public short getShort(int column) {
+        return mCurrent != null ? mCurrent.getShort(column) : 0;
+    }
+
+    @Override
+    public int getInt(int column) {
+        return mCurrent != null ? mCurrent.getInt(column) : 0;
+    }
+
+    @Override
+    public long getLong(int column) {
+        return mCurrent != null ? mCurrent.getLong(column) : 0;
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return mCurrent != null ? mCurrent.getFloat(column) : 0;
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return mCurrent != null ? mCurrent.getDouble(column) : 0;
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return mCurrent != null ? mCurrent.getBlob(column) : null;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mCurrent == null || mCurrent.isNull(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        return mCurrent != null ? mCurrent.getType(column) : FIELD_TYPE_NULL;
+    }
+
+    @Override
+    public void deactivate() {
+        releaseWindows();
+        super.deactivate();
+    }
+
+    @Override
+    public boolean requery() {
+        // Windows are fetched again as rows are moved to.
+        releaseWindows();
+        mColumnNames = null;
+        if (!countRows()) {
+            return false;
+        }
+        return super.requery();
+    }
+
+    @Override
+    public void close() {
+        synchronized (mLock) {
+            mClosed = true;
+        }
+        releaseWindows();
+        super.close();
+    }
+
+    private void releaseWindows() {
+        for (int i=0; i<mNumWindows; i++) {
+            mWindows[i].unregisterContentObserver(mForwarder);
+            mWindows[i].close();
+            mWindows[i] = null;
+        }
+        mNumWindows = 0;
+        mCurrent = null;
+        mCurrentStart = -1;
+        synchronized (mLock) {
+            mGeneration++;
+            for (int i=0; i<mPrefetched.size(); i++) {
+                mPrefetched.valueAt(i).close();
+            }
+            mPrefetched.clear();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.os;
+
+import android.util.Log;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Implementation of CancellationSignal compatibility that can call Jellybean
+ * APIs.  The library is built against an older SDK, so the framework class is
+ * reached through reflection; only use this on Android 4.1 or above.
+ */
+class CancellationSignalCompatJellybean {
+    static final String TAG = "CancellationSignalCompat";
+
+    private static Class<?> sSignalClass;
+    private static Method sCancel;
+    private static boolean sLookedUp;
+
+    private static synchronized boolean lookUp() {
+        if (!sLookedUp) {
+            sLookedUp = true;
+            try {
+                sSignalClass = Class.forName("android.os.CancellationSignal");
+                sCancel = sSignalClass.getMethod("cancel");
+            } catch (Exception e) {
+                Log.w(TAG, "Framework CancellationSignal not available", e);
+                sSignalClass = null;
+                sCancel = null;
+            }
+        }
+        return sCancel != null;
+    }
+
+    /**
+     * Return a new framework cancellation signal, or null if it could not be
+     * created.
+     */
+    public static Object create() {
+        if (!lookUp()) {
+            return null;
+        }
+        try {
+            return sSignalClass.getConstructor().newInstance();
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to create a framework CancellationSignal", e);
+            return null;
+        }
+    }
+
+    public static void cancel(Object cancellationSignalObj) {
+        if (!lookUp()) {
+            return;
+        }
+        try {
+            sCancel.invoke(cancellationSignalObj);
+        } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
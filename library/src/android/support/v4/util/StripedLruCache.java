@@ -0,0 +1,496 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.support.v4.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A variant of {@link LruCache} for caches shared by many threads.  Entries
+ * are spread by key hash over a number of stripes, each with its own lock
+ * and access order, so threads working on different keys rarely contend.
+ * The size budget is still global: when it is exceeded, the entry evicted
+ * is the least recently used of the stripes' least recently used entries,
+ * which makes eviction order approximately, rather than exactly, least
+ * recently used.  Each stripe publishes when its least recently used entry
+ * was used, so the victim is picked without locking any stripe, and a write
+ * never holds more than one stripe's lock at a time.
+ *
+ * <p>{@link #create}, {@link #sizeOf} and {@link #entryRemoved} are called
+ * and behave as they do for {@link LruCache}.
+ */
+public class StripedLruCache<K, V> {
+    private static final int DEFAULT_STRIPES = 4;
+
+    private static final class Node<V> {
+        final V value;
+        final int size;
+        // Value of the cache's clock when last used.
+        long stamp;
+
+        Node(V value, int size, long stamp) {
+            this.value = value;
+            this.size = size;
+            this.stamp = stamp;
+        }
+    }
+
+    private static final class Stripe<K, V> {
+        final LinkedHashMap<K, Node<V>> map = new LinkedHashMap<K, Node<V>>(0, 0.75f, true);
+        // Stamp of the eldest entry of map, or Long.MAX_VALUE if it is empty.
+        // Written with the stripe locked, read without.
+        volatile long eldestStamp = Long.MAX_VALUE;
+
+        int putCount;
+        int createCount;
+        int evictionCount;
+        int hitCount;
+        int missCount;
+    }
+
+    private static final class SnapshotEntry<K, V> {
+        final K key;
+        final V value;
+        final long stamp;
+
+        SnapshotEntry(K key, V value, long stamp) {
+            this.key = key;
+            this.value = value;
+            this.stamp = stamp;
+        }
+    }
+
+    private final ArrayList<Stripe<K, V>> stripes;
+    private final AtomicInteger size = new AtomicInteger();
+    private final int maxSize;
+
+    /**
+     * Advanced on every insertion, and read when an entry is used; entries
+     * used since the last insertion are treated as equally recent.
+     */
+    private final AtomicLong clock = new AtomicLong();
+
+    /**
+     * @param maxSize for caches that do not override {@link #sizeOf}, this is
+     *     the maximum number of entries in the cache. For all other caches,
+     *     this is the maximum sum of the sizes of the entries in this cache.
+     */
+    public StripedLruCache(int maxSize) {
+        this(maxSize, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param maxSize see {@link #StripedLruCache(int)}.
+     * @param stripeCount the number of independently locked stripes.
+     */
+    public StripedLruCache(int maxSize, int stripeCount) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("stripeCount <= 0");
+        }
+        this.maxSize = maxSize;
+        this.stripes = new ArrayList<Stripe<K, V>>(stripeCount);
+        for (int i = 0; i < stripeCount; i++) {
+            stripes.add(new Stripe<K, V>());
+        }
+    }
+
+    private Stripe<K, V> stripeFor(Object key) {
+        int h = key.hashCode();
+        // Spread the bits, as the low ones of many hash codes are poor.
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return stripes.get((h & 0x7fffffff) % stripes.size());
+    }
+
+    /**
+     * Publish the stamp of the eldest entry of {@code stripe}, which must be
+     * locked.
+     */
+    private static <K, V> void updateEldest(Stripe<K, V> stripe) {
+        stripe.eldestStamp = stripe.map.isEmpty()
+                ? Long.MAX_VALUE : stripe.map.values().iterator().next().stamp;
+    }
+
+    /**
+     * Returns the value for {@code key} if it exists in the cache or can be
+     * created by {@code #create}. If a value was returned, it is moved to the
+     * head of its stripe's queue. This returns null if a value is not cached
+     * and cannot be created.
+     */
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        final Stripe<K, V> stripe = stripeFor(key);
+        Node<V> mapNode;
+        synchronized (stripe) {
+            mapNode = stripe.map.get(key);
+            if (mapNode != null) {
+                stripe.hitCount++;
+                final boolean wasEldest = mapNode.stamp == stripe.eldestStamp;
+                mapNode.stamp = clock.get();
+                if (wasEldest) {
+                    // It may have been the eldest, and is now the newest.
+                    updateEldest(stripe);
+                }
+                return mapNode.value;
+            }
+            stripe.missCount++;
+        }
+
+        /*
+         * As in LruCache, create() runs without a lock, and a value added
+         * for the key in the meantime wins over the created one.
+         */
+
+        V createdValue = create(key);
+        if (createdValue == null) {
+            return null;
+        }
+
+        final Node<V> createdNode = new Node<V>(createdValue, safeSizeOf(key, createdValue),
+                clock.incrementAndGet());
+        synchronized (stripe) {
+            stripe.createCount++;
+            mapNode = stripe.map.put(key, createdNode);
+
+            if (mapNode != null) {
+                // There was a conflict so undo that last put
+                stripe.map.put(key, mapNode);
+            } else {
+                size.addAndGet(createdNode.size);
+            }
+            updateEldest(stripe);
+        }
+
+        if (mapNode != null) {
+            entryRemoved(false, key, createdValue, mapNode.value);
+            return mapNode.value;
+        } else {
+            trimToSize(stripe);
+            return createdValue;
+        }
+    }
+
+    /**
+     * Caches {@code value} for {@code key}. The value is moved to the head of
+     * its stripe's queue.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+
+        final Stripe<K, V> stripe = stripeFor(key);
+        final Node<V> node = new Node<V>(value, safeSizeOf(key, value), clock.incrementAndGet());
+        Node<V> previous;
+        synchronized (stripe) {
+            stripe.putCount++;
+            size.addAndGet(node.size);
+            previous = stripe.map.put(key, node);
+            if (previous != null) {
+                size.addAndGet(-previous.size);
+            }
+            updateEldest(stripe);
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous.value, value);
+        }
+
+        trimToSize(stripe);
+        return previous != null ? previous.value : null;
+    }
+
+    /**
+     * Evict entries until the cache is within its budget.  Each entry
+     * evicted is the eldest of the stripe whose published eldest entry is
+     * the oldest, preferring {@code writer}, the stripe just written to.
+     * Stripes are locked one at a time.
+     */
+    private void trimToSize(Stripe<K, V> writer) {
+        while (size.get() > maxSize) {
+            Stripe<K, V> victim = writer;
+            long oldest = writer.eldestStamp;
+            for (Stripe<K, V> stripe : stripes) {
+                final long stamp = stripe.eldestStamp;
+                if (stamp < oldest) {
+                    victim = stripe;
+                    oldest = stamp;
+                }
+            }
+            if (oldest == Long.MAX_VALUE) {
+                // Every stripe is empty, or about to be written to by another
+                // thread, which trims the cache after its write.
+                break;
+            }
+
+            K key;
+            V value;
+            synchronized (victim) {
+                if (victim.map.isEmpty()) {
+                    // Emptied by another thread meanwhile; look again.
+                    continue;
+                }
+                Map.Entry<K, Node<V>> toEvict = victim.map.entrySet().iterator().next();
+                key = toEvict.getKey();
+                value = toEvict.getValue().value;
+                victim.map.remove(key);
+                size.addAndGet(-toEvict.getValue().size);
+                victim.evictionCount++;
+                updateEldest(victim);
+            }
+
+            entryRemoved(true, key, value, null);
+        }
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        final Stripe<K, V> stripe = stripeFor(key);
+        Node<V> previous;
+        synchronized (stripe) {
+            previous = stripe.map.remove(key);
+            if (previous != null) {
+                size.addAndGet(-previous.size);
+                updateEldest(stripe);
+            }
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous.value, null);
+            return previous.value;
+        }
+        return null;
+    }
+
+    /**
+     * Called for entries that have been evicted or removed, as with
+     * {@link LruCache#entryRemoved}. The default implementation does nothing.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {}
+
+    /**
+     * Called after a cache miss to compute a value for the corresponding key,
+     * as with {@link LruCache#create}. The default implementation returns
+     * null.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     */
+    protected V create(K key) {
+        return null;
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the size of the entry for {@code key} and {@code value} in
+     * user-defined units.  The default implementation returns 1 so that size
+     * is the number of entries and max size is the maximum number of entries.
+     *
+     * <p>The size is taken once when the entry is added.
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        for (Stripe<K, V> stripe : stripes) {
+            while (true) {
+                K key;
+                V value;
+                synchronized (stripe) {
+                    Iterator<Map.Entry<K, Node<V>>> it = stripe.map.entrySet().iterator();
+                    if (!it.hasNext()) {
+                        break;
+                    }
+                    Map.Entry<K, Node<V>> toEvict = it.next();
+                    key = toEvict.getKey();
+                    value = toEvict.getValue().value;
+                    it.remove();
+                    size.addAndGet(-toEvict.getValue().size);
+                    stripe.evictionCount++;
+                    updateEldest(stripe);
+                }
+
+                entryRemoved(true, key, value, null);
+            }
+        }
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the number
+     * of entries in the cache. For all other caches, this returns the sum of
+     * the sizes of the entries in this cache.
+     */
+    public final int size() {
+        return size.get();
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the maximum
+     * number of entries in the cache. For all other caches, this returns the
+     * maximum sum of the sizes of the entries in this cache.
+     */
+    public final int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of independently locked stripes.
+     */
+    public final int stripeCount() {
+        return stripes.size();
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned a value.
+     */
+    public final int hitCount() {
+        int count = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.hitCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned null or required a new
+     * value to be created.
+     */
+    public final int missCount() {
+        int count = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.missCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of times {@link #create(Object)} returned a value.
+     */
+    public final int createCount() {
+        int count = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.createCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of times {@link #put} was called.
+     */
+    public final int putCount() {
+        int count = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.putCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of values that have been evicted.
+     */
+    public final int evictionCount() {
+        int count = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.evictionCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache, ordered from
+     * approximately least recently accessed to most recently accessed.
+     */
+    public final Map<K, V> snapshot() {
+        ArrayList<SnapshotEntry<K, V>> entries = new ArrayList<SnapshotEntry<K, V>>();
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                for (Map.Entry<K, Node<V>> entry : stripe.map.entrySet()) {
+                    Node<V> node = entry.getValue();
+                    entries.add(new SnapshotEntry<K, V>(entry.getKey(), node.value, node.stamp));
+                }
+            }
+        }
+        // The sort is stable, so each stripe's own order is kept among
+        // entries used since the same insertion.
+        Collections.sort(entries, new Comparator<SnapshotEntry<K, V>>() {
+            @Override
+            public int compare(SnapshotEntry<K, V> lhs, SnapshotEntry<K, V> rhs) {
+                return lhs.stamp < rhs.stamp ? -1 : (lhs.stamp == rhs.stamp ? 0 : 1);
+            }
+        });
+        LinkedHashMap<K, V> result = new LinkedHashMap<K, V>();
+        for (SnapshotEntry<K, V> entry : entries) {
+            result.put(entry.key, entry.value);
+        }
+        return result;
+    }
+
+    @Override public final String toString() {
+        int hits = hitCount();
+        int accesses = hits + missCount();
+        int hitPercent = accesses != 0 ? (100 * hits / accesses) : 0;
+        return String.format("StripedLruCache[maxSize=%d,stripes=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                maxSize, stripes.size(), hits, accesses - hits, hitPercent);
+    }
+}
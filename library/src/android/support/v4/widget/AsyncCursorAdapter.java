@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.widget;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.PriorityExecutor;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link CursorAdapter} that moves the expensive part of binding a row,
+ * such as decoding an image, off the main thread.
+ *
+ * <p>After {@link #bindView} has bound the cheap parts of a row as usual,
+ * {@link #snapshotRow} copies whatever the expensive work needs out of the
+ * cursor on the main thread.  {@link #loadRow} then runs on a small pool of
+ * background threads, and {@link #bindRowResult} applies its result on the
+ * main thread, but only if the row view has not been reused for another
+ * position in the meantime.  Work for a row view that is rebound before it
+ * started is dropped.
+ *
+ * @param <S> Type of the values copied out of the cursor for a row.
+ * @param <R> Type of the result of the background work for a row.
+ */
+public abstract class AsyncCursorAdapter<S, R> extends CursorAdapter {
+    static final String TAG = "AsyncCursorAdapter";
+
+    private static final int POOL_SIZE = 2;
+
+    private static Executor sDefaultExecutor;
+
+    final class RowTask implements Runnable {
+        // Weak, so pending work does not keep the map's key alive.
+        final WeakReference<View> mView;
+        final S mSnapshot;
+        R mResult;
+        boolean mFailed;
+        volatile boolean mCanceled;
+
+        RowTask(View view, S snapshot) {
+            mView = new WeakReference<View>(view);
+            mSnapshot = snapshot;
+        }
+
+        /* Runs on a worker thread */
+        @Override
+        public void run() {
+            if (mCanceled) {
+                return;
+            }
+            try {
+                mResult = loadRow(mSnapshot);
+            } catch (RuntimeException e) {
+                // Report back anyway, so the row does not stay pending.
+                Log.w(TAG, "Loading row failed", e);
+                mFailed = true;
+            } finally {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(RowTask.this);
+                    }
+                });
+            }
+        }
+    }
+
+    final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // The work outstanding for each row view.  Only touched on the main thread.
+    final WeakHashMap<View, RowTask> mPending = new WeakHashMap<View, RowTask>();
+
+    Executor mExecutor;
+
+    /**
+     * @see CursorAdapter#CursorAdapter(Context, Cursor, int)
+     */
+    public AsyncCursorAdapter(Context context, Cursor c, int flags) {
+        super(context, c, flags);
+    }
+
+    /**
+     * Set the executor background work for rows is run on.  By default this
+     * is a pool of two background threads shared by all async adapters.
+     *
+     * @param executor The executor to use, or null for the default one.
+     */
+    public void setExecutor(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Called on the main thread, with the cursor moved to the row, to copy
+     * out what {@link #loadRow} needs.
+     *
+     * @return The values for the background work, or null if there is
+     * nothing to do for this row.
+     */
+    protected abstract S snapshotRow(Cursor cursor);
+
+    /**
+     * Called on a background thread to do the expensive work for a row.
+     */
+    protected abstract R loadRow(S snapshot);
+
+    /**
+     * Called on the main thread to apply the result of {@link #loadRow} to a
+     * row view that is still showing the row it was loaded for.
+     */
+    protected abstract void bindRowResult(View view, S snapshot, R result);
+
+    /**
+     * Called on the main thread when a row view is bound and its background
+     * work has been queued, to show a placeholder until the result arrives.
+     * The default implementation does nothing.
+     */
+    protected void bindRowPending(View view, S snapshot) {
+    }
+
+    /**
+     * Called on the main thread instead of {@link #bindRowResult} when
+     * {@link #loadRow} threw, for a row view that is still showing the row.
+     * The default implementation does nothing, leaving whatever
+     * {@link #bindRowPending} showed.
+     */
+    protected void bindRowFailed(View view, S snapshot) {
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        View v = super.getView(position, convertView, parent);
+        bindAsync(v, mCursor);
+        return v;
+    }
+
+    void bindAsync(View view, Cursor cursor) {
+        RowTask previous = mPending.remove(view);
+        if (previous != null) {
+            cancel(previous);
+        }
+        S snapshot = snapshotRow(cursor);
+        if (snapshot == null) {
+            return;
+        }
+        RowTask task = new RowTask(view, snapshot);
+        mPending.put(view, task);
+        bindRowPending(view, snapshot);
+        getExecutor().execute(task);
+    }
+
+    void deliver(RowTask task) {
+        final View view = task.mView.get();
+        if (task.mCanceled || view == null || mPending.get(view) != task) {
+            // The view has been bound to another row since.
+            return;
+        }
+        mPending.remove(view);
+        if (task.mFailed) {
+            bindRowFailed(view, task.mSnapshot);
+        } else {
+            bindRowResult(view, task.mSnapshot, task.mResult);
+        }
+    }
+
+    /**
+     * Drop all background work that has not been applied yet.
+     */
+    public void cancelPendingRows() {
+        for (RowTask task : mPending.values()) {
+            cancel(task);
+        }
+        mPending.clear();
+    }
+
+    private void cancel(RowTask task) {
+        // Still queued work returns right away once it gets to run.
+        task.mCanceled = true;
+    }
+
+    private Executor getExecutor() {
+        if (mExecutor != null) {
+            return mExecutor;
+        }
+        synchronized (AsyncCursorAdapter.class) {
+            if (sDefaultExecutor == null) {
+                sDefaultExecutor = new PriorityExecutor("AsyncCursorAdapter", POOL_SIZE,
+                        Long.MAX_VALUE);
+            }
+            return sDefaultExecutor;
+        }
+    }
+
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        cancelPendingRows();
+        return super.swapCursor(newCursor);
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.widget;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.PriorityExecutor;
+import android.support.v4.util.LruCache;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * A memory bounded cache of bitmaps decoded from image URIs, which also
+ * takes care of decoding them in the background at about the size they
+ * are shown at.  Used by {@link SimpleCursorAdapter} to show image columns
+ * holding URIs, see {@link SimpleCursorAdapter#setBitmapCache(BitmapCache)}.
+ *
+ * <p>The size of the cache is the number of bytes of bitmap data it holds.
+ * Bitmaps dropped from the cache are passed to {@link #entryRemoved}; they
+ * are not recycled by default since they may still be shown.
+ *
+ * <p>Images are decoded for a size bucket, the power of two at or above the
+ * larger side of the view, and cached under their URI and bucket, so views
+ * of about the same size share one decoded bitmap.  A view that has not
+ * been laid out yet, as on the first bind of a new list row, is given its
+ * image after layout; if its size is still unknown then, as for an image
+ * view that wraps its content, {@link #setDefaultDecodeSize(int)} is used.
+ *
+ * <p>{@link #loadInto(ImageView, Uri)} and {@link #cancel(ImageView)} must
+ * be called from the main thread.
+ */
+public class BitmapCache extends LruCache<String, Bitmap> {
+    static final String TAG = "BitmapCache";
+
+    private static Executor sDecodeExecutor;
+
+    final Context mContext;
+    final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // What each image view is waiting for, and what is being decoded.
+    final WeakHashMap<ImageView, String> mTargets = new WeakHashMap<ImageView, String>();
+    final HashSet<String> mDecoding = new HashSet<String>();
+    // Views waiting to be laid out before their image is looked up.
+    final WeakHashMap<ImageView, Uri> mWaiting = new WeakHashMap<ImageView, Uri>();
+
+    int mDefaultDecodeSize;
+
+    /**
+     * @param maxBytes Maximum number of bytes of bitmap data to keep, see
+     * {@link #getDefaultMaxBytes()}.
+     */
+    public BitmapCache(Context context, int maxBytes) {
+        super(maxBytes);
+        mContext = context.getApplicationContext();
+        DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
+        mDefaultDecodeSize = Math.min(metrics.widthPixels, metrics.heightPixels) / 2;
+    }
+
+    /**
+     * Set the size to decode images for when the size of their view is
+     * unknown.  Defaults to half of the smaller side of the screen.
+     */
+    public void setDefaultDecodeSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+        mDefaultDecodeSize = size;
+    }
+
+    public int getDefaultDecodeSize() {
+        return mDefaultDecodeSize;
+    }
+
+    /**
+     * Return a reasonable cache size: an eighth of the memory available to
+     * the process.
+     */
+    public static int getDefaultMaxBytes() {
+        return (int)Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+    }
+
+    @Override
+    protected int sizeOf(String key, Bitmap value) {
+        return value.getRowBytes() * value.getHeight();
+    }
+
+    /**
+     * Show the image at <var>uri</var> in <var>view</var>.  A cached bitmap
+     * is shown right away; otherwise the view is cleared and the image is
+     * decoded in the background, scaled down to about the size of the view,
+     * and shown once decoded unless the view has been given another image in
+     * the meantime.
+     */
+    public void loadInto(ImageView view, Uri uri) {
+        loadInto(view, uri, true);
+    }
+
+    void loadInto(final ImageView view, final Uri uri, boolean mayWait) {
+        mWaiting.remove(view);
+        int size = knownSize(view);
+        if (size <= 0) {
+            if (mayWait) {
+                // Not laid out yet; posted actions run after the next layout.
+                mTargets.remove(view);
+                mWaiting.put(view, uri);
+                view.setImageDrawable(null);
+                view.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mWaiting.get(view) == uri) {
+                            loadInto(view, uri, false);
+                        }
+                    }
+                });
+                return;
+            }
+            size = mDefaultDecodeSize;
+        }
+        final int bucket = bucketFor(size);
+        final String key = uri.toString() + "@" + bucket;
+        Bitmap bitmap = get(key);
+        if (bitmap != null) {
+            mTargets.remove(view);
+            view.setImageBitmap(bitmap);
+            return;
+        }
+
+        mTargets.put(view, key);
+        view.setImageDrawable(null);
+        if (!mDecoding.add(key)) {
+            // Already on its way.
+            return;
+        }
+        final Uri source = uri;
+        getDecodeExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap decoded = null;
+                try {
+                    decoded = decode(mContext.getContentResolver(), source, bucket, bucket);
+                } finally {
+                    // Always report back, so the key is not left decoding.
+                    final Bitmap result = decoded;
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onDecoded(key, result);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop waiting for an image for <var>view</var>, for example because it
+     * is being given an image from somewhere else.
+     */
+    public void cancel(ImageView view) {
+        mTargets.remove(view);
+        mWaiting.remove(view);
+    }
+
+    void onDecoded(String key, Bitmap bitmap) {
+        mDecoding.remove(key);
+        if (bitmap != null) {
+            put(key, bitmap);
+        }
+        Iterator<Map.Entry<ImageView, String>> it = mTargets.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<ImageView, String> entry = it.next();
+            if (key.equals(entry.getValue())) {
+                it.remove();
+                if (entry.getKey() != null) {
+                    entry.getKey().setImageBitmap(bitmap);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode the image at <var>uri</var>, scaled down by a power of two to
+     * no less than the requested size.  Called on a background thread.
+     *
+     * @return The bitmap, or null if it could not be decoded.
+     */
+    public static Bitmap decode(ContentResolver resolver, Uri uri, int reqWidth,
+            int reqHeight) {
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            decodeStream(resolver, uri, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            int sampleSize = 1;
+            while (options.outWidth / (sampleSize*2) >= reqWidth
+                    && options.outHeight / (sampleSize*2) >= reqHeight) {
+                sampleSize *= 2;
+            }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+            return decodeStream(resolver, uri, options);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to decode " + uri, e);
+            return null;
+        } catch (OutOfMemoryError e) {
+            Log.w(TAG, "Out of memory decoding " + uri, e);
+            return null;
+        } catch (RuntimeException e) {
+            // Such as a SecurityException or IllegalArgumentException from
+            // the content resolver.
+            Log.w(TAG, "Unable to open " + uri, e);
+            return null;
+        }
+    }
+
+    private static Bitmap decodeStream(ContentResolver resolver, Uri uri,
+            BitmapFactory.Options options) throws IOException {
+        InputStream in = resolver.openInputStream(uri);
+        if (in == null) {
+            throw new IOException("No stream for " + uri);
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Size to decode for: the larger side of the view if it has been laid
+     * out, else of its fixed layout size, else 0.
+     */
+    static int knownSize(ImageView view) {
+        int size = Math.max(view.getWidth(), view.getHeight());
+        if (size <= 0) {
+            ViewGroup.LayoutParams params = view.getLayoutParams();
+            if (params != null) {
+                size = Math.max(params.width, params.height);
+            }
+        }
+        return size;
+    }
+
+    static int bucketFor(int size) {
+        return size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    }
+
+    private static synchronized Executor getDecodeExecutor() {
+        if (sDecodeExecutor == null) {
+            sDecodeExecutor = new PriorityExecutor("BitmapCache", 2, Long.MAX_VALUE);
+        }
+        return sDecodeExecutor;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.support.v4.widget;
+
+import android.database.Cursor;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the indices of a set of columns for the last few column
+ * layouts seen, so that resolving them for a new cursor with the same
+ * projection does not look up every name again.  A layout is recognized by
+ * the identity of the cursor's column name array first, then by its hash
+ * and contents.
+ */
+final class ColumnIndexCache {
+    static final int MAX_LAYOUTS = 4;
+
+    static final class Layout {
+        String[] mNames;
+        int mHash;
+        int[] mIndices;
+    }
+
+    private final String[] mColumns;
+    // Most recently used first.
+    private final Layout[] mLayouts = new Layout[MAX_LAYOUTS];
+    private int mSize;
+
+    ColumnIndexCache(String[] columns) {
+        mColumns = columns;
+    }
+
+    String[] getColumns() {
+        return mColumns;
+    }
+
+    /**
+     * Return the indices of the columns in <var>cursor</var>.  The array
+     * is shared and must not be modified.
+     *
+     * @throws IllegalArgumentException if a column does not exist.
+     */
+    int[] resolve(Cursor cursor) {
+        final String[] names = cursor.getColumnNames();
+        for (int i=0; i<mSize; i++) {
+            if (mLayouts[i].mNames == names) {
+                return use(i).mIndices;
+            }
+        }
+        final int hash = Arrays.hashCode(names);
+        for (int i=0; i<mSize; i++) {
+            final Layout layout = mLayouts[i];
+            if (layout.mHash == hash && Arrays.equals(layout.mNames, names)) {
+                // Same projection; remember this array for the next lookup.
+                layout.mNames = names;
+                return use(i).mIndices;
+            }
+        }
+
+        final int count = mColumns.length;
+        final int[] indices = new int[count];
+        for (int i=0; i<count; i++) {
+            indices[i] = cursor.getColumnIndexOrThrow(mColumns[i]);
+        }
+        Layout layout;
+        if (mSize < MAX_LAYOUTS) {
+            layout = new Layout();
+            mLayouts[mSize++] = layout;
+        } else {
+            layout = mLayouts[mSize-1];
+        }
+        layout.mNames = names;
+        layout.mHash = hash;
+        layout.mIndices = indices;
+        use(mSize-1);
+        return indices;
+    }
+
+    private Layout use(int index) {
+        final Layout layout = mLayouts[index];
+        System.arraycopy(mLayouts, 0, mLayouts, 1, index);
+        mLayouts[0] = layout;
+        return layout;
+    }
+}
@@ -21,6 +21,10 @@ import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.DataSetObserver;
 import android.os.Handler;
+import android.os.SystemClock;
+import android.support.v4.content.CursorFilterValues;
+import android.support.v4.content.CursorSignature;
+import android.support.v4.content.PriorityExecutor;
 import android.util.Config;
 import android.util.Log;
 import android.view.View;
@@ -30,6 +34,9 @@ import android.widget.Filter;
 import android.widget.FilterQueryProvider;
 import android.widget.Filterable;
 
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+
 /**
  * Static library support version of the framework's {@link android.widget.CursorAdapter}.
  * Used to write apps that run on platforms prior to Android 3.0.  When running
@@ -85,6 +92,102 @@ public abstract class CursorAdapter extends BaseAdapter implements Filterable,
      */
     protected FilterQueryProvider mFilterQueryProvider;
 
+    /**
+     * Receives the differences found when diffing on swap, see
+     * {@link CursorAdapter#setDiffOnSwap(boolean)}.
+     */
+    public interface OnCursorDiffListener {
+        /**
+         * Called on the main thread with the differences between the
+         * previous cursor and the current one.
+         */
+        void onCursorDiff(CursorAdapter adapter, CursorDiff diff);
+    }
+
+    /**
+     * The row a view was last bound to, and the hash of its contents.
+     */
+    static final class BoundRow {
+        long mId;
+        int mHash;
+    }
+
+    static final String TAG = "CursorAdapter";
+    static final boolean DEBUG = false;
+
+    private static Executor sDiffExecutor;
+    private static Executor sRequeryExecutor;
+
+    boolean mDiffOnSwap;
+    OnCursorDiffListener mOnCursorDiffListener;
+    // Signature of mCursor, while it is known to match its contents.
+    CursorSignature mSignature;
+    WeakHashMap<View, BoundRow> mBoundRows;
+    boolean mSwapping;
+    int mDiffGeneration;
+
+    /**
+     * Match filter constraints against the start of each row's
+     * {@link #convertToString(Cursor)} value, ignoring case.
+     *
+     * @see #setInMemoryFilter(int)
+     */
+    public static final int FILTER_MATCH_PREFIX = 1;
+
+    /**
+     * Match filter constraints anywhere in each row's
+     * {@link #convertToString(Cursor)} value, ignoring case.
+     *
+     * @see #setInMemoryFilter(int)
+     */
+    public static final int FILTER_MATCH_CONTAINS = 2;
+
+    CursorSectionIndexer mSectionIndexer;
+
+    final ColumnIndexCache mRowIDColumnCache = new ColumnIndexCache(new String[] { "_id" });
+
+    int mInMemoryFilter;
+    volatile CursorFilterIndex mFilterIndex;
+    Handler mFilterHandler;
+
+    /**
+     * Filter index requested by the filter thread from the main thread.
+     */
+    final class FilterIndexRequest implements Runnable {
+        CursorFilterIndex mIndex;
+        boolean mDone;
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                try {
+                    mIndex = prepareFilterIndex();
+                } finally {
+                    mDone = true;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    // A change is delivered at most this many windows after the first one
+    // it coalesced, even if notifications keep coming.
+    static final int MAX_CHANGE_DELAY_WINDOWS = 4;
+
+    long mChangeWindow;
+    long mFirstChangeTime;
+    long mChangeDeadline;
+    boolean mChangeScheduled;
+    boolean mRequerying;
+    boolean mChangedWhileRequerying;
+    Handler mChangeHandler;
+    final Runnable mDeliverChange = new Runnable() {
+        @Override
+        public void run() {
+            deliverChange();
+        }
+    };
+
     /**
      * If set the adapter will call requery() on the cursor whenever a content change
      * notification is delivered. Implies {@link #FLAG_REGISTER_CONTENT_OBSERVER}.
@@ -172,7 +275,7 @@ public abstract class CursorAdapter extends BaseAdapter implements Filterable,
         mCursor = c;
         mDataValid = cursorPresent;
         mContext = context;
-        mRowIDColumn = cursorPresent ? c.getColumnIndexOrThrow("_id") : -1;
+        mRowIDColumn = cursorPresent ? mRowIDColumnCache.resolve(c)[0] : -1;
         if ((flags & FLAG_REGISTER_CONTENT_OBSERVER) == FLAG_REGISTER_CONTENT_OBSERVER) {
             mChangeObserver = new ChangeObserver();
             mDataSetObserver = new MyDataSetObserver();
@@ -248,16 +351,145 @@ public abstract class CursorAdapter extends BaseAdapter implements Filterable,
         if (!mCursor.moveToPosition(position)) {
             throw new IllegalStateException("couldn't move cursor to position " + position);
         }
+        final CursorSignature signature = mSignature;
+        if (signature != null && position >= signature.getCount()) {
+            dropSignature();
+        }
         View v;
         if (convertView == null) {
             v = newView(mContext, mCursor, parent);
         } else {
             v = convertView;
+            if (mSignature != null) {
+                BoundRow row = mBoundRows.get(v);
+                if (row != null && row.mId == signature.getId(position)
+                        && row.mHash == signature.getHash(position)) {
+                    // Already showing exactly this row.
+                    return v;
+                }
+            }
         }
         bindView(v, mContext, mCursor);
+        if (mSignature != null) {
+            BoundRow row = mBoundRows.get(v);
+            if (row == null) {
+                row = new BoundRow();
+                mBoundRows.put(v, row);
+            }
+            row.mId = signature.getId(position);
+            row.mHash = signature.getHash(position);
+        }
         return v;
     }
 
+    /**
+     * Set whether a new cursor is compared with the previous one when it is
+     * swapped in, using the {@link CursorSignature}s attached to them (see
+     * {@link android.support.v4.content.CursorLoader#setComputeSignatures(boolean)
+     * CursorLoader.setComputeSignatures()}).  When both cursors have one,
+     * rows whose id and contents did not change are not bound again, the
+     * list is not refreshed at all if nothing changed, and the differences
+     * are computed in the background and reported to the
+     * {@link OnCursorDiffListener}.  Row views must then only show what was
+     * bound from their cursor row.  Off by default.
+     */
+    public void setDiffOnSwap(boolean diffOnSwap) {
+        mDiffOnSwap = diffOnSwap;
+        if (!diffOnSwap) {
+            dropSignature();
+        }
+    }
+
+    public boolean getDiffOnSwap() {
+        return mDiffOnSwap;
+    }
+
+    public void setOnCursorDiffListener(OnCursorDiffListener listener) {
+        mOnCursorDiffListener = listener;
+    }
+
+    /**
+     * Forget which rows views are showing, so that they are all bound again.
+     */
+    void dropSignature() {
+        mSignature = null;
+        if (mBoundRows != null) {
+            mBoundRows.clear();
+        }
+    }
+
+    @Override
+    public void notifyDataSetChanged() {
+        if (!mSwapping) {
+            // The contents may have changed under the signature.
+            dropSignature();
+        }
+        super.notifyDataSetChanged();
+    }
+
+    /**
+     * Swap in a cursor with a signature, refreshing only if it differs
+     * from the previous one.  The rows the views were bound to are kept, so
+     * that views still showing an unchanged row are not bound again.
+     */
+    private void swapSignature(CursorSignature oldSig, CursorSignature newSig) {
+        mSignature = newSig;
+        if (mBoundRows == null) {
+            mBoundRows = new WeakHashMap<View, BoundRow>();
+        }
+        if (mOnCursorDiffListener != null) {
+            reportDiff(oldSig, newSig);
+        }
+        if (oldSig != null && sameRows(oldSig, newSig)) {
+            return;
+        }
+        mSwapping = true;
+        try {
+            notifyDataSetChanged();
+        } finally {
+            mSwapping = false;
+        }
+    }
+
+    private static boolean sameRows(CursorSignature a, CursorSignature b) {
+        final int count = a.getCount();
+        if (count != b.getCount()) {
+            return false;
+        }
+        for (int i=0; i<count; i++) {
+            if (a.getId(i) != b.getId(i) || a.getHash(i) != b.getHash(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void reportDiff(final CursorSignature oldSig, final CursorSignature newSig) {
+        final int generation = ++mDiffGeneration;
+        final Handler handler = new Handler();
+        getDiffExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final CursorDiff diff = CursorDiff.compute(oldSig, newSig);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mDiffGeneration && mOnCursorDiffListener != null) {
+                            mOnCursorDiffListener.onCursorDiff(CursorAdapter.this, diff);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private static synchronized Executor getDiffExecutor() {
+        if (sDiffExecutor == null) {
+            sDiffExecutor = new PriorityExecutor("CursorDiff", 1, Long.MAX_VALUE);
+        }
+        return sDiffExecutor;
+    }
+
     @Override
     public View getDropDownView(int position, View convertView, ViewGroup parent) {
         if (mDataValid) {
@@ -313,9 +545,21 @@ public abstract class CursorAdapter extends BaseAdapter implements Filterable,
      * @param cursor The new cursor to be used
      */
     public void changeCursor(Cursor cursor) {
+        if (cursor instanceof FilteredCursor && ((FilteredCursor) cursor).mIndex != mFilterIndex) {
+            // Filtered from a cursor that has been replaced since.
+            cursor.close();
+            return;
+        }
         Cursor old = swapCursor(cursor);
         if (old != null) {
-            old.close();
+            final CursorFilterIndex index = mFilterIndex;
+            if (index != null && old == index.mBase) {
+                // Still shown through filtered views, it is closed along
+                // with the index.
+                index.mOwnsBase = true;
+            } else {
+                old.close();
+            }
         }
     }
 
@@ -334,6 +578,9 @@ public abstract class CursorAdapter extends BaseAdapter implements Filterable,
             return null;
         }
         Cursor oldCursor = mCursor;
+        // The views' bound rows are kept until it is known whether the new
+        // cursor can be diffed against them.
+        CursorSignature oldSig = mSignature;
         if (oldCursor != null) {
             if (mChangeObserver != null) oldCursor.unregisterContentObserver(mChangeObserver);
             if (mDataSetObserver != null) oldCursor.unregisterDataSetObserver(mDataSetObserver);
@@ -342,16 +589,32 @@ public abstract class CursorAdapter extends BaseAdapter implements Filterable,
         if (newCursor != null) {
             if (mChangeObserver != null) newCursor.registerContentObserver(mChangeObserver);
             if (mDataSetObserver != null) newCursor.registerDataSetObserver(mDataSetObserver);
-            mRowIDColumn = newCursor.getColumnIndexOrThrow("_id");
+            mRowIDColumn = mRowIDColumnCache.resolve(newCursor)[0];
             mDataValid = true;
-            // notify the observers about the new cursor
-            notifyDataSetChanged();
+            CursorSignature newSig = mDiffOnSwap ? CursorSignature.get(newCursor) : null;
+            if (newSig != null) {
+                swapSignature(oldSig, newSig);
+            } else {
+                // notify the observers about the new cursor; this also
+                // forgets the views' bound rows
+                notifyDataSetChanged();
+            }
         } else {
+            dropSignature();
             mRowIDColumn = -1;
             mDataValid = false;
             // notify the observers about the lack of a data set
             notifyDataSetInvalidated();
         }
+        if (mSectionIndexer != null) {
+            mSectionIndexer.setCursor(newCursor);
+        }
+        final CursorFilterIndex index = mFilterIndex;
+        if (index != null && newCursor != index.mBase && !(newCursor instanceof FilteredCursor
+                && ((FilteredCursor) newCursor).mIndex == index)) {
+            mFilterIndex = null;
+            index.release(index.mBase != oldCursor);
+        }
         return oldCursor;
     }
 
@@ -401,6 +664,109 @@ public abstract class CursorAdapter extends BaseAdapter implements Filterable,
         return mCursor;
     }
 
+    /**
+     * Keep <var>indexer</var> on the adapter's cursor: it is given the
+     * current cursor now, and every cursor swapped in after.  Subclasses
+     * implementing {@link android.widget.SectionIndexer} for fast scrolling
+     * can delegate to it.
+     */
+    public void setSectionIndexer(CursorSectionIndexer indexer) {
+        mSectionIndexer = indexer;
+        if (indexer != null) {
+            indexer.setCursor(mCursor);
+        }
+    }
+
+    public CursorSectionIndexer getSectionIndexer() {
+        return mSectionIndexer;
+    }
+
+    /**
+     * Answer filter constraints from an index of the current cursor's
+     * {@link CursorFilterValues} instead of
+     * {@link #runQueryOnBackgroundThread(CharSequence)}.  The values are
+     * computed where the cursor is loaded, normally with the same strings as
+     * {@link #convertToString(Cursor)}, see
+     * {@link android.support.v4.content.CursorLoader#setFilterValueConverter
+     * CursorLoader.setFilterValueConverter()}, so the cursor is not read on
+     * the main thread.  Each constraint, and especially one refining the
+     * previous constraint, is then matched in memory on the filter thread.
+     * The matching rows are shown in cursor order through a view of the
+     * original cursor, which stays open until a different cursor is swapped
+     * in.  A cursor without values attached is filtered through
+     * runQueryOnBackgroundThread() as usual.
+     *
+     * @param match {@link #FILTER_MATCH_PREFIX}, {@link #FILTER_MATCH_CONTAINS},
+     * or 0 to query through {@link #runQueryOnBackgroundThread(CharSequence)},
+     * the default.
+     */
+    public void setInMemoryFilter(int match) {
+        if (match != 0 && match != FILTER_MATCH_PREFIX && match != FILTER_MATCH_CONTAINS) {
+            throw new IllegalArgumentException("Unknown match: " + match);
+        }
+        mInMemoryFilter = match;
+        if (match != 0 && mFilterHandler == null) {
+            mFilterHandler = new Handler();
+        }
+    }
+
+    public int getInMemoryFilter() {
+        return mInMemoryFilter;
+    }
+
+    /**
+     * Called on the filter thread; returns null to run the query instead.
+     */
+    Cursor filterInMemory(CharSequence constraint) {
+        if (mInMemoryFilter == 0) {
+            return null;
+        }
+        CursorFilterIndex index = mFilterIndex;
+        if (index == null || index.isStale()) {
+            // The current cursor may only be looked at on the main thread;
+            // this does not read it.
+            FilterIndexRequest request = new FilterIndexRequest();
+            synchronized (request) {
+                mFilterHandler.post(request);
+                try {
+                    while (!request.mDone) {
+                        request.wait();
+                    }
+                } catch (InterruptedException e) {
+                    return null;
+                }
+            }
+            index = request.mIndex;
+            if (index == null) {
+                return null;
+            }
+        }
+        return new FilteredCursor(index, constraint, index.query(constraint));
+    }
+
+    CursorFilterIndex prepareFilterIndex() {
+        final Cursor base = mCursor instanceof FilteredCursor
+                ? ((FilteredCursor) mCursor).mIndex.mBase : mCursor;
+        if (mInMemoryFilter == 0 || base == null || base.isClosed()) {
+            return null;
+        }
+        CursorFilterIndex index = mFilterIndex;
+        if (index == null) {
+            final CursorFilterValues values = CursorFilterValues.get(base);
+            if (values == null || values.getCount() != base.getCount()) {
+                return null;
+            }
+            index = new CursorFilterIndex(base, mInMemoryFilter, values);
+            mFilterIndex = index;
+        }
+        if (index.isStale()) {
+            // Requeried in place since the values were computed.
+            return null;
+        }
+        index.setMode(mInMemoryFilter);
+        return index;
+    }
+
     public Filter getFilter() {
         if (mCursorFilter == null) {
             mCursorFilter = new CursorFilter(this);
@@ -446,11 +812,157 @@ public abstract class CursorAdapter extends BaseAdapter implements Filterable,
      */
     protected void onContentChanged() {
         if (mAutoRequery && mCursor != null && !mCursor.isClosed()) {
+            if (mChangeWindow > 0 && canQueryInBackground()) {
+                requeryInBackground();
+                return;
+            }
             if (Config.LOGV) Log.v("Cursor", "Auto requerying " + mCursor + " due to update");
             mDataValid = mCursor.requery();
         }
     }
 
+    /**
+     * Coalesce content change notifications: {@link #onContentChanged()} is
+     * only called once notifications have stopped arriving for
+     * <var>windowMillis</var>, and no later than a few windows after the
+     * first one.  With {@link #FLAG_AUTO_REQUERY}, if a
+     * {@link FilterQueryProvider} is set or
+     * {@link #runQueryOnBackgroundThread(CharSequence)} is overridden, the
+     * requery is then also moved off the main thread: the cursor is queried
+     * again through runQueryOnBackgroundThread() with the constraint of the
+     * last filter results, and the result swapped in with
+     * {@link #changeCursor(Cursor)} unless the cursor has been changed in the
+     * meantime, for example by newer filter results.  Otherwise a cursor can
+     * only be requeried in place, which is still done on the main thread.  A
+     * window of 0, the default, delivers every notification immediately.
+     */
+    public void setContentChangeWindow(long windowMillis) {
+        mChangeWindow = windowMillis;
+        if (windowMillis <= 0 && mChangeScheduled) {
+            mChangeHandler.removeCallbacks(mDeliverChange);
+            mChangeScheduled = false;
+            onContentChanged();
+        }
+    }
+
+    public long getContentChangeWindow() {
+        return mChangeWindow;
+    }
+
+    void dispatchContentChanged() {
+        if (mChangeWindow <= 0) {
+            onContentChanged();
+            return;
+        }
+        if (mChangeHandler == null) {
+            mChangeHandler = new Handler();
+        }
+        final long now = SystemClock.uptimeMillis();
+        if (!mChangeScheduled) {
+            mChangeScheduled = true;
+            mFirstChangeTime = now;
+            mChangeDeadline = now + mChangeWindow;
+            mChangeHandler.postAtTime(mDeliverChange, mChangeDeadline);
+            return;
+        }
+        // Push the delivery back; deliverChange() reposts itself until the
+        // deadline is reached, so the callback never has to be removed.
+        mChangeDeadline = Math.min(now + mChangeWindow,
+                mFirstChangeTime + mChangeWindow*MAX_CHANGE_DELAY_WINDOWS);
+    }
+
+    void deliverChange() {
+        if (!mChangeScheduled) {
+            return;
+        }
+        final long now = SystemClock.uptimeMillis();
+        if (now < mChangeDeadline) {
+            mChangeHandler.postAtTime(mDeliverChange, mChangeDeadline);
+            return;
+        }
+        mChangeScheduled = false;
+        if (mRequerying) {
+            // Query again once the one in flight is done, it may have
+            // started before this change.
+            mChangedWhileRequerying = true;
+            return;
+        }
+        onContentChanged();
+    }
+
+    /**
+     * Return true if a new cursor can be queried off the main thread, that
+     * is if {@link #runQueryOnBackgroundThread(CharSequence)} does more than
+     * return the current cursor.
+     */
+    boolean canQueryInBackground() {
+        if (mFilterQueryProvider != null) {
+            return true;
+        }
+        try {
+            return getClass().getMethod("runQueryOnBackgroundThread", CharSequence.class)
+                    .getDeclaringClass() != CursorAdapter.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private void requeryInBackground() {
+        final Cursor cursor = mCursor;
+        final CharSequence constraint = mCursorFilter != null ? mCursorFilter.mConstraint : null;
+        final Handler handler = new Handler();
+        mRequerying = true;
+        if (DEBUG) Log.v(TAG, "Requerying " + cursor + " in background due to update");
+        // Not through the filter: it drops all but the latest of its pending
+        // requests, and must not have its constraint replaced by ours.
+        getRequeryExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                Cursor result = null;
+                try {
+                    result = runQueryOnBackgroundThread(constraint);
+                    if (result != null && result != cursor) {
+                        // Fill the window here rather than on the main thread.
+                        result.getCount();
+                    }
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Background requery failed", e);
+                } finally {
+                    final Cursor requeried = result;
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onRequeried(cursor, requeried);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    void onRequeried(Cursor cursor, Cursor result) {
+        mRequerying = false;
+        if (result != null && result != cursor) {
+            if (mCursor == cursor) {
+                changeCursor(result);
+            } else {
+                // The cursor was changed while querying, the result is stale.
+                result.close();
+            }
+        }
+        if (mChangedWhileRequerying) {
+            mChangedWhileRequerying = false;
+            onContentChanged();
+        }
+    }
+
+    private static synchronized Executor getRequeryExecutor() {
+        if (sRequeryExecutor == null) {
+            sRequeryExecutor = new PriorityExecutor("CursorRequery", 1, Long.MAX_VALUE);
+        }
+        return sRequeryExecutor;
+    }
+
     private class ChangeObserver extends ContentObserver {
         public ChangeObserver() {
             super(new Handler());
@@ -463,7 +975,7 @@ public abstract class CursorAdapter extends BaseAdapter implements Filterable,
 
         @Override
         public void onChange(boolean selfChange) {
-            onContentChanged();
+            dispatchContentChanged();
         }
     }
 
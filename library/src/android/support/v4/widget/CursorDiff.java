@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.widget;
+
+import android.support.v4.content.CursorSignature;
+
+import java.util.HashMap;
+
+/**
+ * The differences between two results of the same query, matched by row
+ * id: which rows of the new result were inserted or have changed contents,
+ * as ranges of positions, and how many rows of the old result are gone.
+ * Reported by {@link CursorAdapter} when diffing on swap, see
+ * {@link CursorAdapter#setDiffOnSwap(boolean)}.
+ */
+public final class CursorDiff {
+    // Start and length of each range, in pairs.
+    final int[] mRanges;
+    final int mRangeCount;
+    final int mInserted;
+    final int mChanged;
+    final int mRemoved;
+
+    CursorDiff(int[] ranges, int rangeCount, int inserted, int changed, int removed) {
+        mRanges = ranges;
+        mRangeCount = rangeCount;
+        mInserted = inserted;
+        mChanged = changed;
+        mRemoved = removed;
+    }
+
+    /**
+     * Compare two signatures.  Either may be null for an empty result.
+     */
+    public static CursorDiff compute(CursorSignature oldSig, CursorSignature newSig) {
+        final int oldCount = oldSig != null ? oldSig.getCount() : 0;
+        final int newCount = newSig != null ? newSig.getCount() : 0;
+        HashMap<Long, Integer> oldHashes = new HashMap<Long, Integer>(oldCount * 2);
+        for (int i=0; i<oldCount; i++) {
+            oldHashes.put(oldSig.getId(i), oldSig.getHash(i));
+        }
+
+        int[] ranges = new int[8];
+        int rangeCount = 0;
+        int inserted = 0;
+        int changed = 0;
+        int matched = 0;
+        int runStart = -1;
+        for (int i=0; i<=newCount; i++) {
+            boolean differs = false;
+            if (i < newCount) {
+                Integer oldHash = oldHashes.get(newSig.getId(i));
+                if (oldHash == null) {
+                    inserted++;
+                    differs = true;
+                } else {
+                    matched++;
+                    if (oldHash.intValue() != newSig.getHash(i)) {
+                        changed++;
+                        differs = true;
+                    }
+                }
+            }
+            if (differs && runStart < 0) {
+                runStart = i;
+            } else if (!differs && runStart >= 0) {
+                if (rangeCount*2 == ranges.length) {
+                    int[] newRanges = new int[ranges.length*2];
+                    System.arraycopy(ranges, 0, newRanges, 0, ranges.length);
+                    ranges = newRanges;
+                }
+                ranges[rangeCount*2] = runStart;
+                ranges[rangeCount*2+1] = i - runStart;
+                rangeCount++;
+                runStart = -1;
+            }
+        }
+        return new CursorDiff(ranges, rangeCount, inserted, changed, oldCount - matched);
+    }
+
+    /**
+     * Return true if both results hold the same rows with the same contents.
+     */
+    public boolean isEmpty() {
+        return mRangeCount == 0 && mRemoved == 0;
+    }
+
+    /**
+     * Return the number of ranges of new positions that were inserted or
+     * changed.
+     */
+    public int getRangeCount() {
+        return mRangeCount;
+    }
+
+    public int getRangeStart(int range) {
+        return mRanges[range*2];
+    }
+
+    public int getRangeLength(int range) {
+        return mRanges[range*2+1];
+    }
+
+    public int getInsertedCount() {
+        return mInserted;
+    }
+
+    public int getChangedCount() {
+        return mChanged;
+    }
+
+    public int getRemovedCount() {
+        return mRemoved;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append("CursorDiff{inserted=");
+        sb.append(mInserted);
+        sb.append(" changed=");
+        sb.append(mChanged);
+        sb.append(" removed=");
+        sb.append(mRemoved);
+        for (int i=0; i<mRangeCount; i++) {
+            sb.append(' ');
+            sb.append(mRanges[i*2]);
+            sb.append('+');
+            sb.append(mRanges[i*2+1]);
+        }
+        sb.append('}');
+        return sb.toString();
+    }
+}
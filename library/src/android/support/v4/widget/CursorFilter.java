@@ -29,6 +29,10 @@ class CursorFilter extends Filter {
 
     CursorFilterClient mClient;
 
+    // Constraint of the last results published, so that they can be
+    // queried again.
+    CharSequence mConstraint;
+
     interface CursorFilterClient {
         CharSequence convertToString(Cursor cursor);
         Cursor runQueryOnBackgroundThread(CharSequence constraint);
@@ -47,7 +51,13 @@ class CursorFilter extends Filter {
 
     @Override
     protected FilterResults performFiltering(CharSequence constraint) {
-        Cursor cursor = mClient.runQueryOnBackgroundThread(constraint);
+        Cursor cursor = null;
+        if (mClient instanceof CursorAdapter) {
+            cursor = ((CursorAdapter) mClient).filterInMemory(constraint);
+        }
+        if (cursor == null) {
+            cursor = mClient.runQueryOnBackgroundThread(constraint);
+        }
 
         FilterResults results = new FilterResults();
         if (cursor != null) {
@@ -63,6 +73,7 @@ class CursorFilter extends Filter {
     @Override
     protected void publishResults(CharSequence constraint, FilterResults results) {
         Cursor oldCursor = mClient.getCursor();
+        mConstraint = constraint;
 
         if (results.values != null && results.values != oldCursor) {
             mClient.changeCursor((Cursor) results.values);
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.support.v4.widget;
+
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.support.v4.content.CursorFilterValues;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * In-memory index over the {@link CursorFilterValues} attached to a cursor,
+ * answering filter constraints without querying the cursor's source again
+ * or reading the cursor.  The index structures are built on first use by
+ * the filter thread: the positions
+ * sorted by value for {@link CursorAdapter#FILTER_MATCH_PREFIX}, and the
+ * positions of every trigram for {@link CursorAdapter#FILTER_MATCH_CONTAINS}.
+ *
+ * <p>A constraint that refines the previous one (extends it for prefix
+ * matching, contains it for substring matching) only has to check the
+ * previous results when those are fewer than the index would give.
+ * Results are always positions in ascending order, so filtered rows keep the
+ * order of the cursor.
+ */
+final class CursorFilterIndex {
+    static final class Postings {
+        int[] mValues = new int[4];
+        int mSize;
+
+        void add(int position) {
+            if (mSize > 0 && mValues[mSize-1] == position) {
+                return;
+            }
+            if (mSize == mValues.length) {
+                int[] newValues = new int[mSize*2];
+                System.arraycopy(mValues, 0, newValues, 0, mSize);
+                mValues = newValues;
+            }
+            mValues[mSize++] = position;
+        }
+    }
+
+    final Cursor mBase;
+    private int mMode;
+    private final CursorFilterValues.Converter mConverter;
+    // Set when the adapter has let go of the base cursor while filtered
+    // views of it were shown, and so has to close it with the index.
+    boolean mOwnsBase;
+
+    volatile boolean mStale;
+    private final DataSetObserver mObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            mStale = true;
+        }
+
+        @Override
+        public void onInvalidated() {
+            mStale = true;
+        }
+    };
+
+    private String[] mValues;
+    private Integer[] mSorted;
+    private HashMap<Long, Postings> mTrigrams;
+    private String mLastConstraint;
+    private int[] mLastResult;
+
+    CursorFilterIndex(Cursor base, int mode, CursorFilterValues values) {
+        mBase = base;
+        mMode = mode;
+        mConverter = values.getConverter();
+        setValues(values);
+        base.registerDataSetObserver(mObserver);
+    }
+
+    /**
+     * Compute the values of the base cursor again after it has been
+     * requeried in place.  Must be called on the thread that owns the
+     * cursor, which is already the main thread for such a requery.
+     */
+    void recompute() {
+        final CursorFilterValues values = CursorFilterValues.compute(mBase, mConverter);
+        CursorFilterValues.attach(mBase, values);
+        setValues(values);
+    }
+
+    private synchronized void setValues(CursorFilterValues values) {
+        final String[] copy = new String[values.getCount()];
+        for (int i=0; i<copy.length; i++) {
+            copy[i] = values.getValue(i);
+        }
+        mValues = copy;
+        mSorted = null;
+        mTrigrams = null;
+        mLastConstraint = null;
+        mLastResult = null;
+        mStale = false;
+    }
+
+    synchronized void setMode(int mode) {
+        if (mMode != mode) {
+            mMode = mode;
+            mLastConstraint = null;
+            mLastResult = null;
+        }
+    }
+
+    boolean isStale() {
+        return mStale;
+    }
+
+    /**
+     * Stop tracking the base cursor, closing it if the index owns it and
+     * <var>mayClose</var> is true.
+     */
+    void release(boolean mayClose) {
+        mBase.unregisterDataSetObserver(mObserver);
+        if (mOwnsBase && mayClose) {
+            mBase.close();
+        }
+    }
+
+    /**
+     * Return the positions of the values matching <var>constraint</var>, or
+     * null if every row matches.
+     */
+    synchronized int[] query(CharSequence constraint) {
+        if (mValues == null || constraint == null || constraint.length() == 0) {
+            return null;
+        }
+        final String c = CursorFilterValues.foldCase(constraint);
+        int[] candidates = null;
+        if (mLastConstraint != null && mLastResult != null) {
+            final boolean refines = mMode == CursorAdapter.FILTER_MATCH_PREFIX
+                    ? c.startsWith(mLastConstraint) : c.contains(mLastConstraint);
+            if (refines) {
+                candidates = mLastResult;
+            }
+        }
+        final int[] result = mMode == CursorAdapter.FILTER_MATCH_PREFIX
+                ? queryPrefix(c, candidates) : queryContains(c, candidates);
+        mLastConstraint = c;
+        mLastResult = result;
+        return result;
+    }
+
+    private int[] queryPrefix(String c, int[] candidates) {
+        if (candidates != null) {
+            return verify(c, candidates, candidates.length);
+        }
+        if (mSorted == null) {
+            final String[] values = mValues;
+            Integer[] sorted = new Integer[values.length];
+            for (int i=0; i<sorted.length; i++) {
+                sorted[i] = i;
+            }
+            Arrays.sort(sorted, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer lhs, Integer rhs) {
+                    return values[lhs].compareTo(values[rhs]);
+                }
+            });
+            mSorted = sorted;
+        }
+        final Integer[] sorted = mSorted;
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (mValues[sorted[mid]].compareTo(c) < 0) {
+                lo = mid+1;
+            } else {
+                hi = mid;
+            }
+        }
+        int end = lo;
+        while (end < sorted.length && mValues[sorted[end]].startsWith(c)) {
+            end++;
+        }
+        int[] result = new int[end-lo];
+        for (int i=lo; i<end; i++) {
+            result[i-lo] = sorted[i];
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private int[] queryContains(String c, int[] candidates) {
+        if (c.length() >= 3) {
+            if (mTrigrams == null) {
+                mTrigrams = buildTrigrams(mValues);
+            }
+            // The rarest trigram of the constraint gives the fewest rows to
+            // check.
+            Postings rarest = null;
+            for (int i=0; i+3<=c.length(); i++) {
+                Postings postings = mTrigrams.get(trigram(c, i));
+                if (postings == null) {
+                    return new int[0];
+                }
+                if (rarest == null || postings.mSize < rarest.mSize) {
+                    rarest = postings;
+                }
+            }
+            if (candidates == null || rarest.mSize < candidates.length) {
+                return verify(c, rarest.mValues, rarest.mSize);
+            }
+        }
+        if (candidates != null) {
+            return verify(c, candidates, candidates.length);
+        }
+        final int N = mValues.length;
+        int[] result = new int[N];
+        int count = 0;
+        for (int i=0; i<N; i++) {
+            if (mValues[i].contains(c)) {
+                result[count++] = i;
+            }
+        }
+        return trim(result, count);
+    }
+
+    private int[] verify(String c, int[] positions, int size) {
+        final boolean prefix = mMode == CursorAdapter.FILTER_MATCH_PREFIX;
+        int[] result = new int[size];
+        int count = 0;
+        for (int i=0; i<size; i++) {
+            final String value = mValues[positions[i]];
+            if (prefix ? value.startsWith(c) : value.contains(c)) {
+                result[count++] = positions[i];
+            }
+        }
+        return trim(result, count);
+    }
+
+    private static HashMap<Long, Postings> buildTrigrams(String[] values) {
+        HashMap<Long, Postings> trigrams = new HashMap<Long, Postings>();
+        for (int i=0; i<values.length; i++) {
+            final String value = values[i];
+            for (int j=0; j+3<=value.length(); j++) {
+                final Long key = trigram(value, j);
+                Postings postings = trigrams.get(key);
+                if (postings == null) {
+                    postings = new Postings();
+                    trigrams.put(key, postings);
+                }
+                postings.add(i);
+            }
+        }
+        return trigrams;
+    }
+
+    private static Long trigram(String s, int start) {
+        return ((long) s.charAt(start) << 32) | ((long) s.charAt(start+1) << 16)
+                | s.charAt(start+2);
+    }
+
+    private static int[] trim(int[] values, int size) {
+        if (size == values.length) {
+            return values;
+        }
+        int[] result = new int[size];
+        System.arraycopy(values, 0, result, 0, size);
+        return result;
+    }
+}
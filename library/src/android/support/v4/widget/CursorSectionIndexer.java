@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.support.v4.widget;
+
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.widget.SectionIndexer;
+
+import java.text.Collator;
+import java.util.Arrays;
+
+/**
+ * {@link SectionIndexer} over a cursor sorted by one of its columns, for
+ * fast scrolling.  Sections are either the letters of an alphabet or
+ * arbitrary bucket labels given in sorted order; a row belongs to the last
+ * section whose label sorts at or before its value, comparing with the
+ * default {@link Collator} at primary strength.
+ *
+ * <p>Section boundaries are found by binary search on first use and cached,
+ * each search bounded by the closest boundaries already known, so only a
+ * few rows are read however large the cursor is.  The cache is cleared
+ * when the cursor's data changes or another cursor is set; a
+ * {@link CursorAdapter} given the indexer with
+ * {@link CursorAdapter#setSectionIndexer(CursorSectionIndexer)} does the
+ * latter on every swap.  Adapters offer fast scroll sections by
+ * implementing {@link SectionIndexer} and delegating to their indexer.
+ *
+ * <p>Like the adapter's cursor, the indexer must only be used on the main
+ * thread.
+ */
+public class CursorSectionIndexer extends DataSetObserver implements SectionIndexer {
+    protected Cursor mDataCursor;
+    protected final String mColumnName;
+    protected int mColumnIndex = -1;
+
+    private final String[] mSections;
+    private final int[] mPositions;
+    private final Collator mCollator;
+
+    /**
+     * Index the sections starting with each character of
+     * <var>alphabet</var>, such as {@code " ABCDEFGHIJKLMNOPQRSTUVWXYZ"}.
+     */
+    public CursorSectionIndexer(Cursor cursor, String columnName, CharSequence alphabet) {
+        this(cursor, columnName, split(alphabet));
+    }
+
+    /**
+     * Index the sections starting at each of <var>sections</var>, which
+     * must be in sorted order.
+     */
+    public CursorSectionIndexer(Cursor cursor, String columnName, String[] sections) {
+        mColumnName = columnName;
+        mSections = sections;
+        mPositions = new int[sections.length];
+        mCollator = Collator.getInstance();
+        mCollator.setStrength(Collator.PRIMARY);
+        invalidate();
+        setCursor(cursor);
+    }
+
+    private static String[] split(CharSequence alphabet) {
+        String[] sections = new String[alphabet.length()];
+        for (int i=0; i<sections.length; i++) {
+            sections[i] = Character.toString(alphabet.charAt(i));
+        }
+        return sections;
+    }
+
+    /**
+     * Index a different cursor, or none.
+     */
+    public void setCursor(Cursor cursor) {
+        if (mDataCursor == cursor) {
+            return;
+        }
+        if (mDataCursor != null) {
+            mDataCursor.unregisterDataSetObserver(this);
+        }
+        mDataCursor = cursor;
+        mColumnIndex = -1;
+        if (cursor != null) {
+            cursor.registerDataSetObserver(this);
+            mColumnIndex = cursor.getColumnIndexOrThrow(mColumnName);
+        }
+        invalidate();
+    }
+
+    public Cursor getCursor() {
+        return mDataCursor;
+    }
+
+    @Override
+    public Object[] getSections() {
+        return mSections;
+    }
+
+    /**
+     * Compare a row's value with a section label, as used to order them.
+     */
+    protected int compare(String value, String section) {
+        return mCollator.compare(value, section);
+    }
+
+    @Override
+    public int getPositionForSection(int section) {
+        final Cursor cursor = mDataCursor;
+        if (cursor == null || cursor.isClosed() || mSections.length == 0) {
+            return 0;
+        }
+        if (section <= 0) {
+            return 0;
+        }
+        if (section >= mSections.length) {
+            section = mSections.length - 1;
+        }
+        final int[] positions = mPositions;
+        if (positions[section] >= 0) {
+            return positions[section];
+        }
+
+        // Boundaries are in ascending order, so the nearest known ones
+        // bound the search.
+        int lo = 0;
+        for (int i=section-1; i>=0; i--) {
+            if (positions[i] >= 0) {
+                lo = positions[i];
+                break;
+            }
+        }
+        int hi = cursor.getCount();
+        for (int i=section+1; i<positions.length; i++) {
+            if (positions[i] >= 0) {
+                hi = positions[i];
+                break;
+            }
+        }
+
+        final String key = mSections[section];
+        final int savedPos = cursor.getPosition();
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (compare(getValue(cursor, mid), key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        cursor.moveToPosition(savedPos);
+        positions[section] = lo;
+        return lo;
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        final Cursor cursor = mDataCursor;
+        if (cursor == null || cursor.isClosed() || mSections.length == 0) {
+            return 0;
+        }
+        final int savedPos = cursor.getPosition();
+        final String value = getValue(cursor, position);
+        cursor.moveToPosition(savedPos);
+
+        int lo = 0;
+        int hi = mSections.length - 1;
+        while (lo < hi) {
+            final int mid = (lo + hi + 1) >>> 1;
+            if (compare(value, mSections[mid]) < 0) {
+                hi = mid - 1;
+            } else {
+                lo = mid;
+            }
+        }
+        return lo;
+    }
+
+    private String getValue(Cursor cursor, int position) {
+        if (!cursor.moveToPosition(position)) {
+            return "";
+        }
+        String value = cursor.getString(mColumnIndex);
+        return value != null ? value : "";
+    }
+
+    private void invalidate() {
+        Arrays.fill(mPositions, -1);
+    }
+
+    @Override
+    public void onChanged() {
+        super.onChanged();
+        invalidate();
+    }
+
+    @Override
+    public void onInvalidated() {
+        super.onInvalidated();
+        invalidate();
+    }
+}
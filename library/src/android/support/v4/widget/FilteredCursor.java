@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.support.v4.widget;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+/**
+ * View of the rows of a {@link CursorFilterIndex}'s cursor that matched a
+ * constraint.  Closing it leaves the underlying cursor open, since other
+ * views of it may still be shown; the index owns the underlying cursor.
+ */
+final class FilteredCursor extends CursorWrapper {
+    final CursorFilterIndex mIndex;
+    final CharSequence mConstraint;
+    // Positions in the underlying cursor, or null for all of its rows.
+    private int[] mPositions;
+    private int mPos = -1;
+    private boolean mClosed;
+
+    FilteredCursor(CursorFilterIndex index, CharSequence constraint, int[] positions) {
+        super(index.mBase);
+        mIndex = index;
+        mConstraint = constraint;
+        mPositions = positions;
+    }
+
+    @Override
+    public int getCount() {
+        return mPositions != null ? mPositions.length : super.getCount();
+    }
+
+    @Override
+    public int getPosition() {
+        return mPos;
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+        final int count = getCount();
+        if (position >= count) {
+            mPos = count;
+            return false;
+        }
+        if (position < 0) {
+            mPos = -1;
+            return false;
+        }
+        mPos = position;
+        return super.moveToPosition(mPositions != null ? mPositions[position] : position);
+    }
+
+    @Override
+    public boolean move(int offset) {
+        return moveToPosition(mPos + offset);
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToLast() {
+        return moveToPosition(getCount() - 1);
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return moveToPosition(mPos + 1);
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        return moveToPosition(mPos - 1);
+    }
+
+    @Override
+    public boolean isFirst() {
+        return mPos == 0 && getCount() != 0;
+    }
+
+    @Override
+    public boolean isLast() {
+        final int count = getCount();
+        return mPos == count - 1 && count != 0;
+    }
+
+    @Override
+    public boolean isBeforeFirst() {
+        return getCount() == 0 || mPos == -1;
+    }
+
+    @Override
+    public boolean isAfterLast() {
+        return getCount() == 0 || mPos == getCount();
+    }
+
+    /**
+     * Requery the underlying cursor and apply the constraint to its new
+     * contents.
+     */
+    @Deprecated
+    @Override
+    public boolean requery() {
+        if (mClosed || !super.requery()) {
+            return false;
+        }
+        if (mPositions != null) {
+            mIndex.recompute();
+            mPositions = mIndex.query(mConstraint);
+        }
+        mPos = -1;
+        return true;
+    }
+
+    @Override
+    public void deactivate() {
+        // Other views of the underlying cursor may still be in use.
+    }
+
+    @Override
+    public void close() {
+        mClosed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return mClosed || super.isClosed();
+    }
+}
@@ -17,12 +17,20 @@
 package android.support.v4.widget;
 
 import android.content.Context;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
+import android.support.v4.util.LruCache;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.actionbarsherlock.R;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
 /**
  * Static library support version of the framework's {@link android.widget.SimpleCursorAdapter}.
  * Used to write apps that run on platforms prior to Android 3.0.  When running
@@ -47,8 +55,79 @@ public class SimpleCursorAdapter extends ResourceCursorAdapter {
     private int mStringConversionColumn = -1;
     private CursorToStringConverter mCursorToStringConverter;
     private ViewBinder mViewBinder;
+    private boolean mCharArrayBinding;
+    private BitmapCache mBitmapCache;
 
     String[] mOriginalFrom;
+    // Indices of mOriginalFrom for recently seen projections.
+    ColumnIndexCache mColumnIndices;
+
+    static final boolean KEYED_TAGS = Build.VERSION.SDK_INT >= 14;
+
+    // Holders of the rows' bound child views, when they cannot be kept in
+    // the rows' keyed tags.  These holders only weakly reference the child
+    // views, which reference their row, so that rows can still be collected.
+    final WeakHashMap<View, RowHolder> mRowHolders = new WeakHashMap<View, RowHolder>();
+
+    static final int BIND_NONE = 0;
+    static final int BIND_TEXT = 1;
+    static final int BIND_IMAGE = 2;
+    static final int BIND_UNSUPPORTED = 3;
+
+    /**
+     * The child views of a row that columns are bound to, and how each of
+     * them is bound, resolved once per row view, see {@link #getRowHolder(View)}.
+     */
+    static final class RowHolder {
+        final int[] mTo;
+        // Either the views, or weak references to them.
+        final View[] mViews;
+        final ViewRef[] mViewRefs;
+        final int[] mKinds;
+        CharArrayBuffer[] mBuffers;
+
+        RowHolder(View row, int[] to, boolean weak) {
+            final int count = to.length;
+            mTo = to;
+            mViews = weak ? null : new View[count];
+            mViewRefs = weak ? new ViewRef[count] : null;
+            mKinds = new int[count];
+            for (int i = 0; i < count; i++) {
+                final View v = row.findViewById(to[i]);
+                if (weak) {
+                    mViewRefs[i] = v != null ? new ViewRef(v) : null;
+                } else {
+                    mViews[i] = v;
+                }
+                if (v == null) {
+                    mKinds[i] = BIND_NONE;
+                } else if (v instanceof TextView) {
+                    mKinds[i] = BIND_TEXT;
+                } else if (v instanceof ImageView) {
+                    mKinds[i] = BIND_IMAGE;
+                } else {
+                    mKinds[i] = BIND_UNSUPPORTED;
+                }
+            }
+        }
+
+        View getView(int i) {
+            if (mViews != null) {
+                return mViews[i];
+            }
+            final ViewRef ref = mViewRefs[i];
+            return ref != null ? ref.get() : null;
+        }
+    }
+
+    static final class ViewRef extends WeakReference<View> {
+        ViewRef(View view) {
+            super(view);
+        }
+    }
+
+    // Image values already turned into a resource id or a Uri.
+    final LruCache<String, Object> mImageValues = new LruCache<String, Object>(32);
 
     /**
      * Constructor the enables auto-requery.
@@ -121,25 +200,38 @@ public class SimpleCursorAdapter extends ResourceCursorAdapter {
         final ViewBinder binder = mViewBinder;
         final int count = mTo.length;
         final int[] from = mFrom;
-        final int[] to = mTo;
+        final RowHolder holder = getRowHolder(view);
+        final int[] kinds = holder.mKinds;
+        final boolean charArrays = mCharArrayBinding;
 
         for (int i = 0; i < count; i++) {
-            final View v = view.findViewById(to[i]);
+            final int kind = kinds[i];
+            final View v = kind != BIND_NONE ? holder.getView(i) : null;
             if (v != null) {
                 boolean bound = false;
                 if (binder != null) {
                     bound = binder.setViewValue(v, cursor, from[i]);
                 }
 
-                if (!bound) {
+                if (!bound && charArrays && kind == BIND_TEXT) {
+                    if (holder.mBuffers == null) {
+                        holder.mBuffers = new CharArrayBuffer[count];
+                    }
+                    CharArrayBuffer buffer = holder.mBuffers[i];
+                    if (buffer == null) {
+                        buffer = holder.mBuffers[i] = new CharArrayBuffer(32);
+                    }
+                    cursor.copyStringToBuffer(from[i], buffer);
+                    setViewText((TextView) v, buffer);
+                } else if (!bound) {
                     String text = cursor.getString(from[i]);
                     if (text == null) {
                         text = "";
                     }
 
-                    if (v instanceof TextView) {
+                    if (kind == BIND_TEXT) {
                         setViewText((TextView) v, text);
-                    } else if (v instanceof ImageView) {
+                    } else if (kind == BIND_IMAGE) {
                         setViewImage((ImageView) v, text);
                     } else {
                         throw new IllegalStateException(v.getClass().getName() + " is not a " +
@@ -150,6 +242,33 @@ public class SimpleCursorAdapter extends ResourceCursorAdapter {
         }
     }
 
+    /**
+     * Return the holder of <var>view</var>'s bound child views, creating it
+     * on the first bind.  The holder is kept under a keyed tag, leaving the
+     * view's own tag to subclasses.  Before Android 4.0 keyed tags live in a
+     * static map that would keep the rows alive, so the adapter keeps the
+     * holders itself there, in a weak map; those holders only weakly
+     * reference the child views, since the children reference the row, their
+     * map key, and would otherwise keep every row ever bound alive.
+     */
+    RowHolder getRowHolder(View view) {
+        final Object tag = KEYED_TAGS ? view.getTag(R.id.abs__row_holder) : mRowHolders.get(view);
+        if (tag != null) {
+            final RowHolder holder = (RowHolder) tag;
+            if (holder.mTo == mTo) {
+                return holder;
+            }
+        }
+        // No holder yet, or the views to bind to have been changed.
+        final RowHolder holder = new RowHolder(view, mTo, !KEYED_TAGS);
+        if (KEYED_TAGS) {
+            view.setTag(R.id.abs__row_holder, holder);
+        } else {
+            mRowHolders.put(view, holder);
+        }
+        return holder;
+    }
+
     /**
      * Returns the {@link ViewBinder} used to bind data to views.
      *
@@ -173,6 +292,7 @@ public class SimpleCursorAdapter extends ResourceCursorAdapter {
      */
     public void setViewBinder(ViewBinder viewBinder) {
         mViewBinder = viewBinder;
+        dropSignature();
     }
 
     /**
@@ -191,13 +311,78 @@ public class SimpleCursorAdapter extends ResourceCursorAdapter {
      * @param value the value retrieved from the cursor
      */
     public void setViewImage(ImageView v, String value) {
-        try {
-            v.setImageResource(Integer.parseInt(value));
-        } catch (NumberFormatException nfe) {
-            v.setImageURI(Uri.parse(value));
+        Object image = mImageValues.get(value);
+        if (image == null) {
+            try {
+                image = Integer.valueOf(Integer.parseInt(value));
+            } catch (NumberFormatException nfe) {
+                image = Uri.parse(value);
+            }
+            mImageValues.put(value, image);
+        }
+        if (image instanceof Integer) {
+            if (mBitmapCache != null) {
+                mBitmapCache.cancel(v);
+            }
+            v.setImageResource((Integer) image);
+        } else if (mBitmapCache != null) {
+            mBitmapCache.loadInto(v, (Uri) image);
+        } else {
+            v.setImageURI((Uri) image);
         }
     }
 
+    /**
+     * Set a cache used to show image columns that hold URIs.  With a cache,
+     * images are decoded in the background at about the size of their view
+     * and kept in memory, so scrolling back over rows does not decode them
+     * again.  Without one, which is the default, they are decoded on the
+     * main thread by {@link ImageView#setImageURI(Uri)} on every bind.  A
+     * cache may be shared between adapters.
+     *
+     * @param cache The cache to use, or null to decode synchronously.
+     */
+    public void setBitmapCache(BitmapCache cache) {
+        mBitmapCache = cache;
+    }
+
+    public BitmapCache getBitmapCache() {
+        return mBitmapCache;
+    }
+
+    /**
+     * Set whether text columns are copied into a buffer kept for each
+     * view, instead of being read as a new String on every bind.  This
+     * saves allocating a String per text cell per bind while scrolling.  In
+     * this mode {@link #setViewText(TextView, CharArrayBuffer)} is called
+     * for text columns instead of {@link #setViewText(TextView, String)}.
+     * Off by default.
+     */
+    public void setCharArrayBinding(boolean enabled) {
+        mCharArrayBinding = enabled;
+    }
+
+    /**
+     * Return whether text columns are bound through reused buffers, see
+     * {@link #setCharArrayBinding(boolean)}.
+     */
+    public boolean getCharArrayBinding() {
+        return mCharArrayBinding;
+    }
+
+    /**
+     * Called by bindView() to set the text for a TextView when binding
+     * through buffers, see {@link #setCharArrayBinding(boolean)}.  The
+     * buffer belongs to the view and is overwritten on its next bind; the
+     * TextView refers to it directly rather than copying it.
+     *
+     * @param v TextView to receive text
+     * @param text the text to be set for the TextView
+     */
+    public void setViewText(TextView v, CharArrayBuffer text) {
+        v.setText(text.data, 0, text.sizeCopied);
+    }
+
     /**
      * Called by bindView() to set the text for a TextView but only if
      * there is no existing ViewBinder or if the existing ViewBinder cannot
@@ -308,14 +493,15 @@ public class SimpleCursorAdapter extends ResourceCursorAdapter {
      */
     private void findColumns(String[] from) {
         if (mCursor != null) {
-            int i;
+            if (mColumnIndices == null || mColumnIndices.getColumns() != from) {
+                mColumnIndices = new ColumnIndexCache(from);
+            }
+            final int[] indices = mColumnIndices.resolve(mCursor);
             int count = from.length;
             if (mFrom == null || mFrom.length != count) {
                 mFrom = new int[count];
             }
-            for (i = 0; i < count; i++) {
-                mFrom[i] = mCursor.getColumnIndexOrThrow(from[i]);
-            }
+            System.arraycopy(indices, 0, mFrom, 0, count);
         } else {
             mFrom = null;
         }
@@ -343,6 +529,8 @@ public class SimpleCursorAdapter extends ResourceCursorAdapter {
     public void changeCursorAndColumns(Cursor c, String[] from, int[] to) {
         mOriginalFrom = from;
         mTo = to;
+        // Rows need binding again even if their data is the same.
+        dropSignature();
         super.changeCursor(c);
         findColumns(mOriginalFrom);
     }
@@ -0,0 +1,13 @@
+package android.database;
+
+/**
+ * Same no-op callbacks as the framework class, minus the throwing stub
+ * constructor.
+ */
+public abstract class DataSetObserver {
+	public void onChanged() {
+	}
+
+	public void onInvalidated() {
+	}
+}
@@ -0,0 +1,17 @@
+package android.os;
+
+/**
+ * Extends RuntimeException directly, the stub of the framework's
+ * AndroidRuntimeException can't be constructed.
+ */
+public class BadParcelableException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public BadParcelableException(String msg) {
+		super(msg);
+	}
+
+	public BadParcelableException(Exception cause) {
+		super(cause);
+	}
+}
@@ -0,0 +1,43 @@
+package android.os;
+
+import java.util.HashMap;
+
+/**
+ * Only holds strings and ints, which is all the tests put in their arguments
+ * and saved states.
+ */
+public final class Bundle {
+	private final HashMap<String, Object> mMap;
+
+	public Bundle() {
+		mMap = new HashMap<String, Object>();
+	}
+
+	public Bundle(Bundle b) {
+		mMap = new HashMap<String, Object>(b.mMap);
+	}
+
+	public void setClassLoader(ClassLoader loader) {
+	}
+
+	public int size() {
+		return mMap.size();
+	}
+
+	public void putString(String key, String value) {
+		mMap.put(key, value);
+	}
+
+	public String getString(String key) {
+		return (String)mMap.get(key);
+	}
+
+	public void putInt(String key, int value) {
+		mMap.put(key, value);
+	}
+
+	public int getInt(String key) {
+		Object v = mMap.get(key);
+		return v != null ? (Integer)v : 0;
+	}
+}
@@ -0,0 +1,134 @@
+package android.os;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps the written values in a list instead of a byte buffer, so data
+ * positions count values rather than bytes. Reading past the end gives
+ * zero and null like the real thing.
+ */
+public final class Parcel {
+	private final ArrayList<Object> mValues = new ArrayList<Object>();
+	private int mPos;
+
+	private Parcel() {
+	}
+
+	public static Parcel obtain() {
+		return new Parcel();
+	}
+
+	public void recycle() {
+		mValues.clear();
+		mPos = 0;
+	}
+
+	public int dataPosition() {
+		return mPos;
+	}
+
+	public void setDataPosition(int pos) {
+		mPos = pos;
+	}
+
+	public int dataSize() {
+		return mValues.size();
+	}
+
+	public void writeValue(Object v) {
+		if (mPos < mValues.size()) {
+			mValues.set(mPos, v);
+		} else {
+			mValues.add(v);
+		}
+		mPos++;
+	}
+
+	public Object readValue(ClassLoader loader) {
+		return mPos < mValues.size() ? mValues.get(mPos++) : null;
+	}
+
+	public void writeInt(int val) {
+		writeValue(val);
+	}
+
+	public int readInt() {
+		Object v = readValue(null);
+		return v != null ? (Integer)v : 0;
+	}
+
+	public void writeString(String val) {
+		writeValue(val);
+	}
+
+	public String readString() {
+		return (String)readValue(null);
+	}
+
+	public void writeBundle(Bundle val) {
+		writeValue(val != null ? new Bundle(val) : null);
+	}
+
+	public Bundle readBundle() {
+		Bundle b = (Bundle)readValue(null);
+		return b != null ? new Bundle(b) : null;
+	}
+
+	public void writeByteArray(byte[] b) {
+		writeByteArray(b, 0, b != null ? b.length : 0);
+	}
+
+	public void writeByteArray(byte[] b, int offset, int len) {
+		if (b == null) {
+			writeValue(null);
+			return;
+		}
+		byte[] copy = new byte[len];
+		System.arraycopy(b, offset, copy, 0, len);
+		writeValue(copy);
+	}
+
+	public byte[] createByteArray() {
+		byte[] b = (byte[])readValue(null);
+		return b != null ? b.clone() : null;
+	}
+
+	public void writeIntArray(int[] val) {
+		writeValue(val != null ? val.clone() : null);
+	}
+
+	public int[] createIntArray() {
+		int[] val = (int[])readValue(null);
+		return val != null ? val.clone() : null;
+	}
+
+	public <T extends Parcelable> void writeTypedArray(T[] val, int parcelableFlags) {
+		if (val == null) {
+			writeInt(-1);
+			return;
+		}
+		writeInt(val.length);
+		for (T item : val) {
+			if (item != null) {
+				writeInt(1);
+				item.writeToParcel(this, parcelableFlags);
+			} else {
+				writeInt(0);
+			}
+		}
+	}
+
+	public <T> T[] createTypedArray(Parcelable.Creator<T> c) {
+		final int N = readInt();
+		if (N < 0) {
+			return null;
+		}
+		T[] val = c.newArray(N);
+		for (int i = 0; i < N; i++) {
+			if (readInt() != 0) {
+				val[i] = c.createFromParcel(this);
+			}
+		}
+		return val;
+	}
+}
@@ -0,0 +1,11 @@
+package android.os;
+
+/**
+ * Thread priorities are left alone on the JVM.
+ */
+public class Process {
+	public static final int THREAD_PRIORITY_BACKGROUND = 10;
+
+	public static final void setThreadPriority(int priority) {
+	}
+}
@@ -0,0 +1,13 @@
+package android.os;
+
+/**
+ * Uptime from the JVM's monotonic clock.
+ */
+public final class SystemClock {
+	private SystemClock() {
+	}
+
+	public static long uptimeMillis() {
+		return System.nanoTime() / 1000000;
+	}
+}
@@ -0,0 +1,32 @@
+package android.text;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Passes char sequences through the fake {@link Parcel} as they are, so
+ * styled text comes back as the same object.
+ */
+public class TextUtils {
+	public static final Parcelable.Creator<CharSequence> CHAR_SEQUENCE_CREATOR
+			= new Parcelable.Creator<CharSequence>() {
+		public CharSequence createFromParcel(Parcel p) {
+			return (CharSequence)p.readValue(null);
+		}
+
+		public CharSequence[] newArray(int size) {
+			return new CharSequence[size];
+		}
+	};
+
+	private TextUtils() {
+	}
+
+	public static boolean isEmpty(CharSequence str) {
+		return str == null || str.length() == 0;
+	}
+
+	public static void writeToParcel(CharSequence cs, Parcel p, int parcelableFlags) {
+		p.writeValue(cs);
+	}
+}
@@ -0,0 +1,41 @@
+package android.util;
+
+import java.util.TreeMap;
+
+/**
+ * Backed by a tree map rather than sorted arrays.
+ */
+public class SparseIntArray {
+	private final TreeMap<Integer, Integer> mMap = new TreeMap<Integer, Integer>();
+
+	public SparseIntArray() {
+	}
+
+	public SparseIntArray(int initialCapacity) {
+	}
+
+	public int get(int key) {
+		return get(key, 0);
+	}
+
+	public int get(int key, int valueIfKeyNotFound) {
+		Integer value = mMap.get(key);
+		return value != null ? value : valueIfKeyNotFound;
+	}
+
+	public void put(int key, int value) {
+		mMap.put(key, value);
+	}
+
+	public void delete(int key) {
+		mMap.remove(key);
+	}
+
+	public void clear() {
+		mMap.clear();
+	}
+
+	public int size() {
+		return mMap.size();
+	}
+}
@@ -0,0 +1,128 @@
+package android.support.v4.app;
+
+import static org.junit.Assert.assertEquals;
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestBackStackPositions {
+	private BackStackPositions mPositions;
+	private ArrayList<BackStackRecord> mStack;
+	private int mNextIndex;
+
+	@Before
+	public void setUp() {
+		mPositions = new BackStackPositions();
+		mStack = new ArrayList<BackStackRecord>();
+		mNextIndex = 0;
+	}
+
+	private BackStackRecord push(String name) {
+		BackStackRecord bse = new BackStackRecord(null);
+		bse.mName = name;
+		bse.mIndex = mNextIndex++;
+		mStack.add(bse);
+		mPositions.push(bse, mStack.size() - 1);
+		return bse;
+	}
+
+	private void pop() {
+		mPositions.pop(mStack.remove(mStack.size() - 1));
+	}
+
+	private int bruteLastPositionOf(String name) {
+		for (int i = mStack.size() - 1; i >= 0; i--) {
+			if (name.equals(mStack.get(i).getName())) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int brutePositionOf(int id) {
+		for (int i = 0; i < mStack.size(); i++) {
+			if (mStack.get(i).mIndex == id) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int bruteFirstOfTopRun(String name) {
+		int index = bruteLastPositionOf(name);
+		while (index > 0 && name.equals(mStack.get(index - 1).getName())) {
+			index--;
+		}
+		return index;
+	}
+
+	@Test
+	public void emptyStack() {
+		assertEquals(-1, mPositions.lastPositionOf("a"));
+		assertEquals(-1, mPositions.positionOf(0));
+		assertEquals(-1, mPositions.firstOfTopRun("a"));
+	}
+
+	@Test
+	public void lookups() {
+		push("a");
+		push("b");
+		push(null);
+		push("b");
+		push("b");
+		push("c");
+
+		assertEquals(0, mPositions.lastPositionOf("a"));
+		assertEquals(4, mPositions.lastPositionOf("b"));
+		assertEquals(5, mPositions.lastPositionOf("c"));
+		assertEquals(-1, mPositions.lastPositionOf("d"));
+		assertEquals(2, mPositions.positionOf(2));
+		assertEquals(3, mPositions.firstOfTopRun("b"));
+		assertEquals(0, mPositions.firstOfTopRun("a"));
+	}
+
+	@Test
+	public void popForgetsEntries() {
+		push("a");
+		push("b");
+		push("a");
+		pop();
+
+		assertEquals(0, mPositions.lastPositionOf("a"));
+		assertEquals(-1, mPositions.positionOf(2));
+		pop();
+		assertEquals(-1, mPositions.lastPositionOf("b"));
+		assertEquals(-1, mPositions.firstOfTopRun("b"));
+	}
+
+	@Test
+	public void clearForgetsEverything() {
+		push("a");
+		push("a");
+		mPositions.clear();
+
+		assertEquals(-1, mPositions.lastPositionOf("a"));
+		assertEquals(-1, mPositions.positionOf(1));
+	}
+
+	@Test
+	public void matchesLinearScan() {
+		final String[] names = { null, "a", "b", "c" };
+		Random random = new Random(28);
+		for (int step = 0; step < 5000; step++) {
+			if (mStack.isEmpty() || random.nextInt(3) != 0) {
+				push(names[random.nextInt(names.length)]);
+			} else {
+				pop();
+			}
+			for (int i = 1; i < names.length; i++) {
+				assertEquals(bruteLastPositionOf(names[i]), mPositions.lastPositionOf(names[i]));
+				assertEquals(bruteFirstOfTopRun(names[i]), mPositions.firstOfTopRun(names[i]));
+			}
+			for (int id = Math.max(0, mNextIndex - 10); id < mNextIndex; id++) {
+				assertEquals(brutePositionOf(id), mPositions.positionOf(id));
+			}
+		}
+	}
+}
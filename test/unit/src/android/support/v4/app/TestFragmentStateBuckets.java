@@ -0,0 +1,143 @@
+package android.support.v4.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestFragmentStateBuckets {
+	private FragmentStateBuckets mBuckets;
+	private ArrayList<Fragment> mActive;
+
+	@Before
+	public void setUp() {
+		mBuckets = new FragmentStateBuckets();
+		mActive = new ArrayList<Fragment>();
+	}
+
+	private Fragment add(int index, int state, boolean added) {
+		Fragment f = new Fragment();
+		f.mIndex = index;
+		f.mState = state;
+		f.mAdded = added;
+		mActive.add(f);
+		mBuckets.add(f);
+		return f;
+	}
+
+	/** What a pass over the whole active list would move, in index order. */
+	private ArrayList<Fragment> bruteCollect(int newState) {
+		ArrayList<Fragment> sorted = new ArrayList<Fragment>(mActive);
+		Collections.sort(sorted, new Comparator<Fragment>() {
+			@Override
+			public int compare(Fragment lhs, Fragment rhs) {
+				return lhs.mIndex - rhs.mIndex;
+			}
+		});
+		ArrayList<Fragment> result = new ArrayList<Fragment>();
+		for (Fragment f : sorted) {
+			if (f.mState == newState) {
+				continue;
+			}
+			if (newState > Fragment.CREATED && f.mState == Fragment.CREATED && !f.mAdded) {
+				continue;
+			}
+			result.add(f);
+		}
+		return result;
+	}
+
+	private void assertCollects(int newState) {
+		ArrayList<Fragment> expected = bruteCollect(newState);
+		Fragment[] out = new Fragment[mActive.size()];
+		final int count = mBuckets.collect(newState, out);
+		assertEquals(expected.size(), count);
+		for (int i = 0; i < count; i++) {
+			assertSame(expected.get(i), out[i]);
+		}
+	}
+
+	@Test
+	public void collectSkipsFragmentsInTargetState() {
+		Fragment a = add(0, Fragment.RESUMED, true);
+		add(1, Fragment.STARTED, true);
+		Fragment c = add(2, Fragment.CREATED, true);
+		add(3, Fragment.STARTED, true);
+
+		Fragment[] out = new Fragment[4];
+		assertEquals(2, mBuckets.collect(Fragment.STARTED, out));
+		assertSame(a, out[0]);
+		assertSame(c, out[1]);
+		assertEquals(2, mBuckets.mTransitions);
+		assertEquals(2, mBuckets.mSkipped);
+	}
+
+	@Test
+	public void collectLeavesFragmentsThatAreNotAddedInCreatedState() {
+		add(0, Fragment.CREATED, false);
+		Fragment b = add(1, Fragment.CREATED, true);
+
+		Fragment[] out = new Fragment[2];
+		assertEquals(1, mBuckets.collect(Fragment.RESUMED, out));
+		assertSame(b, out[0]);
+		assertEquals(2, mBuckets.collect(Fragment.INITIALIZING, out));
+	}
+
+	@Test
+	public void collectAsksForLargerArray() {
+		add(0, Fragment.CREATED, true);
+		add(1, Fragment.CREATED, true);
+		add(2, Fragment.RESUMED, true);
+
+		assertEquals(-3, mBuckets.collect(Fragment.RESUMED, new Fragment[2]));
+		assertEquals(-3, mBuckets.collect(Fragment.RESUMED, null));
+	}
+
+	@Test
+	public void setStateMovesBetweenGroups() {
+		Fragment a = add(0, Fragment.CREATED, true);
+		Fragment b = add(1, Fragment.CREATED, true);
+		mBuckets.setState(a, Fragment.RESUMED);
+
+		assertEquals(Fragment.RESUMED, a.mState);
+		Fragment[] out = new Fragment[2];
+		assertEquals(1, mBuckets.collect(Fragment.RESUMED, out));
+		assertSame(b, out[0]);
+	}
+
+	@Test
+	public void removeAndClear() {
+		Fragment a = add(0, Fragment.STARTED, true);
+		add(1, Fragment.STARTED, true);
+		mBuckets.remove(a);
+		mActive.remove(a);
+		assertCollects(Fragment.RESUMED);
+
+		mBuckets.clear();
+		assertEquals(0, mBuckets.collect(Fragment.RESUMED, new Fragment[0]));
+	}
+
+	@Test
+	public void matchesPassOverActiveList() {
+		Random random = new Random(30);
+		for (int i = 0; i < 200; i++) {
+			// Out of index order, as fragments are made active again in
+			// freed slots.
+			add(random.nextInt(1000) * 200 + i, random.nextInt(Fragment.RESUMED + 1),
+					random.nextBoolean());
+		}
+		for (int step = 0; step < 500; step++) {
+			final int newState = random.nextInt(Fragment.RESUMED + 1);
+			assertCollects(newState);
+			Fragment f = mActive.get(random.nextInt(mActive.size()));
+			mBuckets.setState(f, newState);
+			if (random.nextInt(4) == 0) {
+				f.mAdded = !f.mAdded;
+			}
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package android.support.v4.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import android.os.BadParcelableException;
+import android.os.Bundle;
+import android.os.Parcel;
+import org.junit.Test;
+
+public class TestFragmentStateCodec {
+	private static FragmentManagerState createState() {
+		Bundle shared = new Bundle();
+		shared.putString("key", "shared");
+		Bundle saved = new Bundle();
+		saved.putInt("scroll", 42);
+
+		FragmentManagerState fms = new FragmentManagerState();
+		fms.mActive = new FragmentState[] {
+			new FragmentState("com.example.ListFragment", 0, true, 0x7f050001, 0x7f050001,
+					"list", false, false, shared),
+			null,
+			new FragmentState("com.example.DetailFragment", 300, false, 0, 0x7f050002,
+					null, true, true, shared),
+			new FragmentState("com.example.ListFragment", 3, false, 17, 0,
+					"list", false, false, null),
+		};
+		fms.mActive[0].mSavedFragmentState = saved;
+		fms.mAdded = new int[] { 0, 300, 3 };
+		fms.mBackStack = new BackStackState[] {
+			new BackStackState(new int[] { 1, 0, 0x10a0000, 0x10a0001, 0 }, 4097, 0,
+					"detail", 0, 0, "Detail", 0x7f060001, null),
+			new BackStackState(new int[] { 3, 300, 0, 0, 1, 3 }, 0, 0x7f070001,
+					null, -1, 0x7f060002, null, 0, "Short"),
+		};
+		return fms;
+	}
+
+	private static FragmentManagerState roundTrip(FragmentManagerState fms) {
+		Parcel p = Parcel.obtain();
+		try {
+			fms.writeToParcel(p, 0);
+			p.setDataPosition(0);
+			return FragmentManagerState.CREATOR.createFromParcel(p);
+		} finally {
+			p.recycle();
+		}
+	}
+
+	private static void assertStateEquals(FragmentManagerState expected, FragmentManagerState actual) {
+		assertEquals(expected.mActive.length, actual.mActive.length);
+		for (int i = 0; i < expected.mActive.length; i++) {
+			FragmentState e = expected.mActive[i];
+			FragmentState a = actual.mActive[i];
+			if (e == null) {
+				assertNull(a);
+				continue;
+			}
+			assertEquals(e.mClassName, a.mClassName);
+			assertEquals(e.mIndex, a.mIndex);
+			assertEquals(e.mFromLayout, a.mFromLayout);
+			assertEquals(e.mFragmentId, a.mFragmentId);
+			assertEquals(e.mContainerId, a.mContainerId);
+			assertEquals(e.mTag, a.mTag);
+			assertEquals(e.mRetainInstance, a.mRetainInstance);
+			assertEquals(e.mDetached, a.mDetached);
+			assertEquals(e.mArguments == null, a.mArguments == null);
+			assertEquals(e.mSavedFragmentState == null, a.mSavedFragmentState == null);
+		}
+		assertArrayEquals(expected.mAdded, actual.mAdded);
+		assertEquals(expected.mBackStack.length, actual.mBackStack.length);
+		for (int i = 0; i < expected.mBackStack.length; i++) {
+			BackStackState e = expected.mBackStack[i];
+			BackStackState a = actual.mBackStack[i];
+			assertArrayEquals(e.mOps, a.mOps);
+			assertEquals(e.mTransition, a.mTransition);
+			assertEquals(e.mTransitionStyle, a.mTransitionStyle);
+			assertEquals(e.mName, a.mName);
+			assertEquals(e.mIndex, a.mIndex);
+			assertEquals(e.mBreadCrumbTitleRes, a.mBreadCrumbTitleRes);
+			assertEquals(e.mBreadCrumbTitleText, a.mBreadCrumbTitleText);
+			assertEquals(e.mBreadCrumbShortTitleRes, a.mBreadCrumbShortTitleRes);
+			assertEquals(e.mBreadCrumbShortTitleText, a.mBreadCrumbShortTitleText);
+		}
+	}
+
+	@Test
+	public void compactRoundTrip() {
+		FragmentManagerState fms = createState();
+		fms.mCompact = true;
+		FragmentManagerState read = roundTrip(fms);
+
+		assertTrue(read.mCompact);
+		assertStateEquals(fms, read);
+		assertEquals("shared", read.mActive[0].mArguments.getString("key"));
+		assertEquals(42, read.mActive[0].mSavedFragmentState.getInt("scroll"));
+	}
+
+	@Test
+	public void compactRoundTripKeepsSharedBundlesShared() {
+		FragmentManagerState fms = createState();
+		fms.mCompact = true;
+		FragmentManagerState read = roundTrip(fms);
+
+		assertSame(read.mActive[0].mArguments, read.mActive[2].mArguments);
+	}
+
+	@Test
+	public void compactRoundTripOfEmptyState() {
+		FragmentManagerState fms = new FragmentManagerState();
+		fms.mCompact = true;
+		FragmentManagerState read = roundTrip(fms);
+
+		assertTrue(read.mCompact);
+		assertNull(read.mActive);
+		assertNull(read.mAdded);
+		assertNull(read.mBackStack);
+	}
+
+	@Test
+	public void plainEncodingIsStillRead() {
+		FragmentManagerState fms = createState();
+		FragmentManagerState read = roundTrip(fms);
+
+		assertFalse(read.mCompact);
+		assertStateEquals(fms, read);
+	}
+
+	@Test
+	public void writeDeduplicatesStringsAndBundles() {
+		FragmentStateCodec codec = new FragmentStateCodec();
+		Parcel p = Parcel.obtain();
+		codec.write(createState(), p);
+		p.recycle();
+
+		// Two class names, one tag and one back stack name.
+		assertEquals(4, codec.mStringCount);
+		assertEquals(2, codec.mBundleCount);
+		assertEquals(1, codec.mSharedBundleCount);
+		assertTrue(codec.mStructureBytes > 0);
+	}
+
+	@Test(expected = BadParcelableException.class)
+	public void unknownVersionIsRejected() {
+		Parcel p = Parcel.obtain();
+		p.writeInt(FragmentStateCodec.MAGIC);
+		p.writeInt(FragmentStateCodec.VERSION + 1);
+		p.setDataPosition(0);
+		FragmentManagerState.CREATOR.createFromParcel(p);
+	}
+
+	@Test(expected = BadParcelableException.class)
+	public void truncatedStructureIsRejected() {
+		Parcel p = Parcel.obtain();
+		p.writeInt(FragmentStateCodec.MAGIC);
+		p.writeInt(FragmentStateCodec.VERSION);
+		p.writeInt(0);
+		p.writeInt(0);
+		// A varint that promises more bytes than there are.
+		p.writeByteArray(new byte[] { (byte)0x80 });
+		p.setDataPosition(0);
+		FragmentManagerState.CREATOR.createFromParcel(p);
+	}
+
+	@Test(expected = BadParcelableException.class)
+	public void classNameOutsideStringTableIsRejected() {
+		Parcel p = Parcel.obtain();
+		p.writeInt(FragmentStateCodec.MAGIC);
+		p.writeInt(FragmentStateCodec.VERSION);
+		p.writeInt(0);
+		p.writeInt(0);
+		p.writeByteArray(new byte[] {
+			0, // No strings.
+			2, // One active fragment,
+			FragmentStateCodec.FRAGMENT_PRESENT,
+			0, // at index 0,
+			0, // with a class name the table doesn't have.
+		});
+		p.setDataPosition(0);
+		FragmentManagerState.CREATOR.createFromParcel(p);
+	}
+}
@@ -0,0 +1,154 @@
+package android.support.v4.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPriorityExecutor {
+	private static final long TIMEOUT = 5000;
+
+	private final List<String> mOrder = new ArrayList<String>();
+	private CountDownLatch mGateStarted;
+	private CountDownLatch mGate;
+	private CountDownLatch mDone;
+
+	@Before
+	public void setUp() {
+		mGateStarted = new CountDownLatch(1);
+		mGate = new CountDownLatch(1);
+	}
+
+	@After
+	public void tearDown() {
+		mGate.countDown();
+	}
+
+	/** Occupy the executor's only thread until {@link #release()}. */
+	private void block(PriorityExecutor executor) throws InterruptedException {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				mGateStarted.countDown();
+				try {
+					mGate.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, AsyncTaskLoader.PRIORITY_HIGH);
+		assertTrue(mGateStarted.await(TIMEOUT, TimeUnit.MILLISECONDS));
+	}
+
+	private void release(int expectedTasks) throws InterruptedException {
+		mGate.countDown();
+		assertTrue(mDone.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertEquals(expectedTasks, mOrder.size());
+	}
+
+	private Runnable task(final String name) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				synchronized (mOrder) {
+					mOrder.add(name);
+				}
+				mDone.countDown();
+			}
+		};
+	}
+
+	@Test
+	public void runsHigherPriorityFirstAndSamePriorityInOrder() throws InterruptedException {
+		PriorityExecutor executor = new PriorityExecutor("test", 1, Long.MAX_VALUE);
+		mDone = new CountDownLatch(5);
+		block(executor);
+		executor.execute(task("low"), AsyncTaskLoader.PRIORITY_LOW);
+		executor.execute(task("normal1"));
+		executor.execute(task("high1"), AsyncTaskLoader.PRIORITY_HIGH);
+		executor.forPriority(AsyncTaskLoader.PRIORITY_HIGH).execute(task("high2"));
+		executor.execute(task("normal2"), AsyncTaskLoader.PRIORITY_NORMAL);
+		release(5);
+
+		assertEquals(Arrays.asList("high1", "high2", "normal1", "normal2", "low"), mOrder);
+		assertEquals(0, executor.getPromotedCount());
+	}
+
+	@Test
+	public void promotesStarvedTask() throws InterruptedException {
+		PriorityExecutor executor = new PriorityExecutor("test", 1, 50);
+		mDone = new CountDownLatch(3);
+		block(executor);
+		executor.execute(task("low"), AsyncTaskLoader.PRIORITY_LOW);
+		Thread.sleep(10);
+		executor.execute(task("high1"), AsyncTaskLoader.PRIORITY_HIGH);
+		executor.execute(task("high2"), AsyncTaskLoader.PRIORITY_HIGH);
+		Thread.sleep(100);
+		release(3);
+
+		assertEquals(Arrays.asList("low", "high1", "high2"), mOrder);
+		assertEquals(1, executor.getPromotedCount());
+	}
+
+	@Test
+	public void doesNotPromoteTaskNewerThanHigherPriorityWork() throws InterruptedException {
+		PriorityExecutor executor = new PriorityExecutor("test", 1, 50);
+		mDone = new CountDownLatch(2);
+		block(executor);
+		executor.execute(task("high"), AsyncTaskLoader.PRIORITY_HIGH);
+		Thread.sleep(10);
+		executor.execute(task("low"), AsyncTaskLoader.PRIORITY_LOW);
+		Thread.sleep(100);
+		release(2);
+
+		assertEquals(Arrays.asList("high", "low"), mOrder);
+		assertEquals(0, executor.getPromotedCount());
+	}
+
+	@Test
+	public void doesNotPromoteBeforeMaxWait() throws InterruptedException {
+		PriorityExecutor executor = new PriorityExecutor("test", 1, TIMEOUT);
+		mDone = new CountDownLatch(2);
+		block(executor);
+		executor.execute(task("low"), AsyncTaskLoader.PRIORITY_LOW);
+		executor.execute(task("high"), AsyncTaskLoader.PRIORITY_HIGH);
+		release(2);
+
+		assertEquals(Arrays.asList("high", "low"), mOrder);
+		assertEquals(0, executor.getPromotedCount());
+	}
+
+	@Test
+	public void tracksQueueDepths() throws InterruptedException {
+		PriorityExecutor executor = new PriorityExecutor("test", 1, Long.MAX_VALUE);
+		mDone = new CountDownLatch(3);
+		block(executor);
+		executor.execute(task("a"), AsyncTaskLoader.PRIORITY_LOW);
+		executor.execute(task("b"), AsyncTaskLoader.PRIORITY_LOW);
+		executor.execute(task("c"));
+		assertEquals(2, executor.getQueueDepth(AsyncTaskLoader.PRIORITY_LOW));
+		assertEquals(1, executor.getQueueDepth(AsyncTaskLoader.PRIORITY_NORMAL));
+		release(3);
+
+		assertEquals(0, executor.getQueueDepth(AsyncTaskLoader.PRIORITY_LOW));
+		assertEquals(2, executor.getMaxQueueDepth(AsyncTaskLoader.PRIORITY_LOW));
+		assertEquals(1, executor.getMaxQueueDepth(AsyncTaskLoader.PRIORITY_HIGH));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnknownPriority() {
+		new PriorityExecutor("test", 1, Long.MAX_VALUE).execute(task("x"),
+				AsyncTaskLoader.PRIORITY_HIGH + 1);
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void rejectsNullTask() {
+		new PriorityExecutor("test", 1, Long.MAX_VALUE).execute(null);
+	}
+}
@@ -0,0 +1,218 @@
+package android.support.v4.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class TestStripedLruCache {
+	/** Counts the entries it evicts, and sizes entries by their value. */
+	private static class CountingCache extends StripedLruCache<Integer, Integer> {
+		final AtomicInteger mEvicted = new AtomicInteger();
+		final List<String> mRemoved = new ArrayList<String>();
+		final boolean mSizeByValue;
+
+		CountingCache(int maxSize, int stripeCount, boolean sizeByValue) {
+			super(maxSize, stripeCount);
+			mSizeByValue = sizeByValue;
+		}
+
+		@Override
+		protected void entryRemoved(boolean evicted, Integer key, Integer oldValue, Integer newValue) {
+			if (evicted) {
+				mEvicted.incrementAndGet();
+			}
+			synchronized (mRemoved) {
+				mRemoved.add(evicted + " " + key + "=" + oldValue + ">" + newValue);
+			}
+		}
+
+		@Override
+		protected int sizeOf(Integer key, Integer value) {
+			return mSizeByValue ? value : 1;
+		}
+	}
+
+	private static HashSet<Integer> range(int from, int to) {
+		HashSet<Integer> keys = new HashSet<Integer>();
+		for (int i = from; i < to; i++) {
+			keys.add(i);
+		}
+		return keys;
+	}
+
+	@Test
+	public void keepsMostRecentEntriesWithinBudget() {
+		CountingCache cache = new CountingCache(10, 4, false);
+		for (int i = 0; i < 100; i++) {
+			cache.put(i, i);
+			assertTrue(cache.size() <= 10);
+		}
+
+		assertEquals(10, cache.size());
+		assertEquals(range(90, 100), cache.snapshot().keySet());
+		assertEquals(90, cache.evictionCount());
+		assertEquals(90, cache.mEvicted.get());
+	}
+
+	@Test
+	public void budgetIsSharedByAllStripes() {
+		// One entry may take most of the budget, whatever stripe it is in.
+		CountingCache cache = new CountingCache(100, 4, true);
+		cache.put(1, 60);
+		cache.put(2, 30);
+		cache.put(3, 5);
+		assertEquals(95, cache.size());
+
+		// Entries used since the last insertion count as being as recent as
+		// it, so 1 is now as recent as 3, and 2 is the eldest.
+		cache.get(1);
+		cache.put(4, 30);
+		assertEquals(95, cache.size());
+		assertEquals(new HashSet<Integer>(Arrays.asList(1, 3, 4)), cache.snapshot().keySet());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedAcrossStripes() {
+		CountingCache cache = new CountingCache(20, 4, false);
+		for (int i = 0; i < 20; i++) {
+			cache.put(i, i);
+		}
+		for (int i = 0; i < 10; i++) {
+			assertEquals(Integer.valueOf(i), cache.get(i));
+		}
+		for (int i = 20; i < 29; i++) {
+			cache.put(i, i);
+		}
+
+		HashSet<Integer> expected = range(0, 10);
+		expected.add(19);
+		expected.addAll(range(20, 29));
+		assertEquals(expected, cache.snapshot().keySet());
+	}
+
+	@Test
+	public void singleStripeMatchesLruCache() {
+		CountingCache striped = new CountingCache(50, 1, true);
+		LruCache<Integer, Integer> lru = new LruCache<Integer, Integer>(50) {
+			@Override
+			protected int sizeOf(Integer key, Integer value) {
+				return value;
+			}
+		};
+		Random random = new Random(50);
+		for (int i = 0; i < 20000; i++) {
+			final Integer key = random.nextInt(100);
+			switch (random.nextInt(4)) {
+				case 0:
+					assertEquals(lru.remove(key), striped.remove(key));
+					break;
+				case 1:
+					assertEquals(lru.get(key), striped.get(key));
+					break;
+				default:
+					final Integer value = 1 + random.nextInt(10);
+					assertEquals(lru.put(key, value), striped.put(key, value));
+					break;
+			}
+			assertEquals(lru.size(), striped.size());
+		}
+		assertEquals(new ArrayList<Integer>(lru.snapshot().keySet()),
+				new ArrayList<Integer>(striped.snapshot().keySet()));
+	}
+
+	@Test
+	public void replaceAndRemoveAdjustSize() {
+		CountingCache cache = new CountingCache(100, 4, true);
+		assertNull(cache.put(1, 10));
+		assertEquals(Integer.valueOf(10), cache.put(1, 20));
+		assertEquals(20, cache.size());
+		assertEquals(Integer.valueOf(20), cache.remove(1));
+		assertNull(cache.remove(1));
+
+		assertEquals(0, cache.size());
+		assertEquals(Arrays.asList("false 1=10>20", "false 1=20>null"), cache.mRemoved);
+	}
+
+	@Test
+	public void createdValuesCountTowardsBudget() {
+		StripedLruCache<Integer, Integer> cache = new StripedLruCache<Integer, Integer>(5) {
+			@Override
+			protected Integer create(Integer key) {
+				return key < 100 ? key * 2 : null;
+			}
+		};
+		for (int i = 0; i < 10; i++) {
+			assertEquals(Integer.valueOf(i * 2), cache.get(i));
+		}
+		assertNull(cache.get(100));
+
+		assertEquals(5, cache.size());
+		assertEquals(range(5, 10), cache.snapshot().keySet());
+		assertEquals(10, cache.createCount());
+		assertEquals(11, cache.missCount());
+	}
+
+	@Test
+	public void evictAllEmptiesEveryStripe() {
+		CountingCache cache = new CountingCache(100, 4, false);
+		for (int i = 0; i < 50; i++) {
+			cache.put(i, i);
+		}
+		cache.evictAll();
+
+		assertEquals(0, cache.size());
+		assertTrue(cache.snapshot().isEmpty());
+		assertEquals(50, cache.mEvicted.get());
+	}
+
+	@Test
+	public void concurrentUseKeepsBudgetAndAccounting() throws InterruptedException {
+		final CountingCache cache = new CountingCache(50, 8, false);
+		final AtomicInteger added = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final Random random = new Random(t);
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 50000; i++) {
+						final Integer key = random.nextInt(500);
+						if (cache.get(key) == null && cache.put(key, key) == null) {
+							added.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertTrue(cache.size() <= 50);
+		assertEquals(cache.size(), cache.snapshot().size());
+		assertEquals(added.get() - cache.mEvicted.get(), cache.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsEmptyBudget() {
+		new StripedLruCache<Integer, Integer>(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNoStripes() {
+		new StripedLruCache<Integer, Integer>(10, 0);
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void rejectsNullKey() {
+		new StripedLruCache<Integer, Integer>(10).get(null);
+	}
+}
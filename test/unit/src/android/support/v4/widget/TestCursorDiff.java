@@ -0,0 +1,158 @@
+package android.support.v4.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import android.support.v4.content.CursorSignature;
+import com.actionbarsherlock.tests.unit.Cursors;
+import org.junit.Test;
+
+public class TestCursorDiff {
+	private static final String[] COLUMNS = { "_id", "title", "icon" };
+
+	/** Rows are given as id and title pairs. */
+	private static CursorSignature signature(Object... idsAndTitles) {
+		Object[][] rows = new Object[idsAndTitles.length / 2][];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = new Object[] { idsAndTitles[i * 2], idsAndTitles[i * 2 + 1], null };
+		}
+		return CursorSignature.compute(Cursors.of(COLUMNS, rows), 0);
+	}
+
+	private static void assertRanges(CursorDiff diff, int... startsAndLengths) {
+		assertEquals(startsAndLengths.length / 2, diff.getRangeCount());
+		for (int i = 0; i < diff.getRangeCount(); i++) {
+			assertEquals(startsAndLengths[i * 2], diff.getRangeStart(i));
+			assertEquals(startsAndLengths[i * 2 + 1], diff.getRangeLength(i));
+		}
+	}
+
+	@Test
+	public void sameRowsAreEmpty() {
+		CursorDiff diff = CursorDiff.compute(signature(1L, "a", 2L, "b"), signature(1L, "a", 2L, "b"));
+
+		assertTrue(diff.isEmpty());
+		assertRanges(diff);
+	}
+
+	@Test
+	public void reorderedRowsAreEmpty() {
+		CursorDiff diff = CursorDiff.compute(signature(1L, "a", 2L, "b"), signature(2L, "b", 1L, "a"));
+
+		assertTrue(diff.isEmpty());
+	}
+
+	@Test
+	public void nullSignaturesAreEmptyResults() {
+		assertTrue(CursorDiff.compute(null, null).isEmpty());
+
+		CursorDiff inserted = CursorDiff.compute(null, signature(1L, "a", 2L, "b"));
+		assertEquals(2, inserted.getInsertedCount());
+		assertRanges(inserted, 0, 2);
+
+		CursorDiff removed = CursorDiff.compute(signature(1L, "a", 2L, "b"), null);
+		assertEquals(2, removed.getRemovedCount());
+		assertFalse(removed.isEmpty());
+		assertRanges(removed);
+	}
+
+	@Test
+	public void insertedChangedAndRemovedRows() {
+		CursorDiff diff = CursorDiff.compute(
+				signature(1L, "a", 2L, "b", 3L, "c", 4L, "d"),
+				signature(1L, "a", 5L, "e", 2L, "B", 3L, "c", 6L, "f"));
+
+		assertEquals(2, diff.getInsertedCount());
+		assertEquals(1, diff.getChangedCount());
+		assertEquals(1, diff.getRemovedCount());
+		assertRanges(diff, 1, 2, 4, 1);
+	}
+
+	@Test
+	public void blobColumnsAreCompared() {
+		Object[][] oldRows = { { 1L, "a", new byte[] { 1, 2 } } };
+		Object[][] newRows = { { 1L, "a", new byte[] { 1, 3 } } };
+		CursorDiff diff = CursorDiff.compute(
+				CursorSignature.compute(Cursors.of(COLUMNS, oldRows), 0),
+				CursorSignature.compute(Cursors.of(COLUMNS, newRows), 0));
+
+		assertEquals(1, diff.getChangedCount());
+		assertRanges(diff, 0, 1);
+	}
+
+	@Test
+	public void matchesRowByRowComparison() {
+		Random random = new Random(45);
+		for (int round = 0; round < 200; round++) {
+			final int oldCount = random.nextInt(30);
+			ArrayList<Object> oldRows = new ArrayList<Object>();
+			HashMap<Long, String> oldTitles = new HashMap<Long, String>();
+			for (int i = 0; i < oldCount; i++) {
+				final long id = random.nextInt(60);
+				if (!oldTitles.containsKey(id)) {
+					final String title = "t" + random.nextInt(3);
+					oldTitles.put(id, title);
+					oldRows.add(id);
+					oldRows.add(title);
+				}
+			}
+			final int newCount = random.nextInt(30);
+			ArrayList<Object> newRows = new ArrayList<Object>();
+			HashMap<Long, String> newTitles = new HashMap<Long, String>();
+			ArrayList<Integer> expectedRanges = new ArrayList<Integer>();
+			int inserted = 0;
+			int changed = 0;
+			int matched = 0;
+			int runStart = -1;
+			for (int i = 0; i < newCount; i++) {
+				final long id = random.nextInt(60);
+				if (newTitles.containsKey(id)) {
+					continue;
+				}
+				final String title = "t" + random.nextInt(3);
+				newTitles.put(id, title);
+				final int position = newRows.size() / 2;
+				newRows.add(id);
+				newRows.add(title);
+
+				final String oldTitle = oldTitles.get(id);
+				boolean differs = true;
+				if (oldTitle == null) {
+					inserted++;
+				} else {
+					matched++;
+					if (oldTitle.equals(title)) {
+						differs = false;
+					} else {
+						changed++;
+					}
+				}
+				if (differs && runStart < 0) {
+					runStart = position;
+				} else if (!differs && runStart >= 0) {
+					expectedRanges.add(runStart);
+					expectedRanges.add(position - runStart);
+					runStart = -1;
+				}
+			}
+			if (runStart >= 0) {
+				expectedRanges.add(runStart);
+				expectedRanges.add(newRows.size() / 2 - runStart);
+			}
+
+			CursorDiff diff = CursorDiff.compute(signature(oldRows.toArray()),
+					signature(newRows.toArray()));
+			assertEquals(inserted, diff.getInsertedCount());
+			assertEquals(changed, diff.getChangedCount());
+			assertEquals(oldTitles.size() - matched, diff.getRemovedCount());
+			int[] ranges = new int[expectedRanges.size()];
+			for (int i = 0; i < ranges.length; i++) {
+				ranges[i] = expectedRanges.get(i);
+			}
+			assertRanges(diff, ranges);
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package android.support.v4.widget;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.util.Locale;
+import java.util.Random;
+import android.database.Cursor;
+import android.support.v4.content.CursorFilterValues;
+import com.actionbarsherlock.tests.unit.Cursors;
+import org.junit.Test;
+
+public class TestCursorFilterIndex {
+	private static final String[] COLUMNS = { "_id", "name" };
+	private static final String ALPHABET = "abcAB é";
+
+	private static Cursor cursor(String... names) {
+		Object[][] rows = new Object[names.length][];
+		for (int i = 0; i < names.length; i++) {
+			rows[i] = new Object[] { (long)i, names[i] };
+		}
+		return Cursors.of(COLUMNS, rows);
+	}
+
+	private static CursorFilterIndex index(Cursor cursor, int mode) {
+		CursorFilterValues values = CursorFilterValues.compute(cursor,
+				CursorFilterValues.forColumn("name"));
+		return new CursorFilterIndex(cursor, mode, values);
+	}
+
+	private static int[] bruteQuery(String[] names, int mode, String constraint) {
+		final String c = CursorFilterValues.foldCase(constraint);
+		int[] result = new int[names.length];
+		int count = 0;
+		for (int i = 0; i < names.length; i++) {
+			final String value = CursorFilterValues.foldCase(names[i]);
+			if (mode == CursorAdapter.FILTER_MATCH_PREFIX ? value.startsWith(c) : value.contains(c)) {
+				result[count++] = i;
+			}
+		}
+		int[] trimmed = new int[count];
+		System.arraycopy(result, 0, trimmed, 0, count);
+		return trimmed;
+	}
+
+	private static String randomString(Random random, int maxLength) {
+		final int length = random.nextInt(maxLength + 1);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+		}
+		return sb.toString();
+	}
+
+	private static String[] randomNames(Random random) {
+		String[] names = new String[300];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = random.nextInt(20) != 0 ? randomString(random, 8) : null;
+		}
+		return names;
+	}
+
+	private static void assertMatchesBruteForce(int mode, long seed) {
+		Random random = new Random(seed);
+		String[] names = randomNames(random);
+		CursorFilterIndex index = index(cursor(names), mode);
+		for (int i = 0; i < 500; i++) {
+			final String constraint = randomString(random, 4);
+			if (constraint.length() == 0) {
+				continue;
+			}
+			assertArrayEquals(constraint, bruteQuery(names, mode, constraint),
+					index.query(constraint));
+		}
+	}
+
+	/** Grow each constraint from the last, so most queries refine the previous one. */
+	private static void assertRefinementMatchesBruteForce(int mode, long seed) {
+		Random random = new Random(seed);
+		String[] names = randomNames(random);
+		CursorFilterIndex index = index(cursor(names), mode);
+		String constraint = "";
+		for (int i = 0; i < 500; i++) {
+			if (constraint.length() >= 5 || random.nextInt(6) == 0) {
+				constraint = "";
+			}
+			final char c = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+			if (mode == CursorAdapter.FILTER_MATCH_CONTAINS && random.nextBoolean()) {
+				constraint = c + constraint;
+			} else {
+				constraint = constraint + c;
+			}
+			assertArrayEquals(constraint, bruteQuery(names, mode, constraint),
+					index.query(constraint));
+		}
+	}
+
+	@Test
+	public void prefixMatchesBruteForce() {
+		assertMatchesBruteForce(CursorAdapter.FILTER_MATCH_PREFIX, 47);
+	}
+
+	@Test
+	public void containsMatchesBruteForce() {
+		assertMatchesBruteForce(CursorAdapter.FILTER_MATCH_CONTAINS, 47);
+	}
+
+	@Test
+	public void prefixRefinementMatchesBruteForce() {
+		assertRefinementMatchesBruteForce(CursorAdapter.FILTER_MATCH_PREFIX, 470);
+	}
+
+	@Test
+	public void containsRefinementMatchesBruteForce() {
+		assertRefinementMatchesBruteForce(CursorAdapter.FILTER_MATCH_CONTAINS, 470);
+	}
+
+	@Test
+	public void modeChangeDropsPreviousResult() {
+		String[] names = { "abc", "xab", "ab" };
+		CursorFilterIndex index = index(cursor(names), CursorAdapter.FILTER_MATCH_PREFIX);
+		assertArrayEquals(new int[] { 0, 2 }, index.query("ab"));
+
+		index.setMode(CursorAdapter.FILTER_MATCH_CONTAINS);
+		assertArrayEquals(new int[] { 0, 1, 2 }, index.query("ab"));
+	}
+
+	@Test
+	public void emptyConstraintMatchesEverything() {
+		CursorFilterIndex index = index(cursor("a", "b"), CursorAdapter.FILTER_MATCH_PREFIX);
+
+		assertNull(index.query(null));
+		assertNull(index.query(""));
+	}
+
+	@Test
+	public void foldsCaseIndependentlyOfLocale() {
+		Locale locale = Locale.getDefault();
+		try {
+			Locale.setDefault(new Locale("tr", "TR"));
+			CursorFilterIndex index = index(cursor("TITLE", "title", "tıtle"),
+					CursorAdapter.FILTER_MATCH_CONTAINS);
+			// Like equalsIgnoreCase(), the dotless i matches i as well.
+			assertArrayEquals(new int[] { 0, 1, 2 }, index.query("Tit"));
+			assertArrayEquals(new int[] { 0, 1, 2 }, index.query("TIT"));
+		} finally {
+			Locale.setDefault(locale);
+		}
+	}
+
+	@Test
+	public void changeMarksIndexStaleUntilRecomputed() {
+		Cursor cursor = cursor("a", "b");
+		CursorFilterIndex index = index(cursor, CursorAdapter.FILTER_MATCH_PREFIX);
+		assertFalse(index.isStale());
+
+		Cursors.notifyChanged(cursor);
+		assertTrue(index.isStale());
+
+		index.recompute();
+		assertFalse(index.isStale());
+		assertArrayEquals(new int[] { 1 }, index.query("B"));
+	}
+
+	@Test
+	public void releaseStopsTrackingBase() {
+		Cursor cursor = cursor("a");
+		CursorFilterIndex index = index(cursor, CursorAdapter.FILTER_MATCH_PREFIX);
+		assertEquals(1, Cursors.getObserverCount(cursor));
+
+		index.mOwnsBase = true;
+		index.release(false);
+		assertEquals(0, Cursors.getObserverCount(cursor));
+		assertFalse(cursor.isClosed());
+	}
+}
@@ -0,0 +1,141 @@
+package com.actionbarsherlock.tests.unit;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import android.database.Cursor;
+import android.database.DataSetObserver;
+
+/**
+ * In-memory cursors for the unit tests. {@link Cursor} is an interface, so
+ * unlike the framework's cursor classes it can be implemented without
+ * touching the android.jar stubs; only the methods the code under test
+ * calls are supported.
+ */
+public final class Cursors {
+	private static final class Rows implements InvocationHandler {
+		final String[] mColumns;
+		final Object[][] mRows;
+		final ArrayList<DataSetObserver> mObservers = new ArrayList<DataSetObserver>();
+		int mPos = -1;
+		boolean mClosed;
+
+		Rows(String[] columns, Object[][] rows) {
+			mColumns = columns;
+			mRows = rows;
+		}
+
+		private boolean moveTo(int position) {
+			mPos = Math.max(-1, Math.min(position, mRows.length));
+			return mPos >= 0 && mPos < mRows.length;
+		}
+
+		private Object value(int column) {
+			if (mPos < 0 || mPos >= mRows.length) {
+				throw new IllegalStateException("Not on a row: " + mPos);
+			}
+			return mRows[mPos][column];
+		}
+
+		private int columnIndex(String name) {
+			for (int i = 0; i < mColumns.length; i++) {
+				if (mColumns[i].equals(name)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			final String name = method.getName();
+			if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			} else if (name.equals("equals")) {
+				return proxy == args[0];
+			} else if (name.equals("toString")) {
+				return "Cursors[" + mRows.length + " rows]";
+			} else if (name.equals("getCount")) {
+				return mRows.length;
+			} else if (name.equals("getColumnCount")) {
+				return mColumns.length;
+			} else if (name.equals("getColumnNames")) {
+				return mColumns.clone();
+			} else if (name.equals("getColumnIndex")) {
+				return columnIndex((String)args[0]);
+			} else if (name.equals("getColumnIndexOrThrow")) {
+				final int index = columnIndex((String)args[0]);
+				if (index < 0) {
+					throw new IllegalArgumentException("No column " + args[0]);
+				}
+				return index;
+			} else if (name.equals("getPosition")) {
+				return mPos;
+			} else if (name.equals("moveToPosition")) {
+				return moveTo((Integer)args[0]);
+			} else if (name.equals("moveToFirst")) {
+				return moveTo(0);
+			} else if (name.equals("moveToNext")) {
+				return moveTo(mPos + 1);
+			} else if (name.equals("isNull")) {
+				return value((Integer)args[0]) == null;
+			} else if (name.equals("getString")) {
+				final Object value = value((Integer)args[0]);
+				if (value instanceof byte[]) {
+					throw new IllegalStateException("Blob read as a string");
+				}
+				return value != null ? value.toString() : null;
+			} else if (name.equals("getLong")) {
+				final Object value = value((Integer)args[0]);
+				return value != null ? ((Number)value).longValue() : 0L;
+			} else if (name.equals("getInt")) {
+				final Object value = value((Integer)args[0]);
+				return value != null ? ((Number)value).intValue() : 0;
+			} else if (name.equals("getBlob")) {
+				return (byte[])value((Integer)args[0]);
+			} else if (name.equals("registerDataSetObserver")) {
+				mObservers.add((DataSetObserver)args[0]);
+				return null;
+			} else if (name.equals("unregisterDataSetObserver")) {
+				mObservers.remove(args[0]);
+				return null;
+			} else if (name.equals("close")) {
+				mClosed = true;
+				return null;
+			} else if (name.equals("isClosed")) {
+				return mClosed;
+			}
+			throw new UnsupportedOperationException(name);
+		}
+	}
+
+	private Cursors() {
+	}
+
+	/**
+	 * Create a cursor over <var>rows</var>, each an array of column values:
+	 * strings, numbers, byte arrays or null.
+	 */
+	public static Cursor of(String[] columns, Object[]... rows) {
+		return (Cursor)Proxy.newProxyInstance(Cursors.class.getClassLoader(),
+				new Class<?>[] { Cursor.class }, new Rows(columns, rows));
+	}
+
+	/**
+	 * Tell the observers registered with <var>cursor</var> that it changed.
+	 */
+	public static void notifyChanged(Cursor cursor) {
+		Rows rows = (Rows)Proxy.getInvocationHandler(cursor);
+		for (DataSetObserver observer : new ArrayList<DataSetObserver>(rows.mObservers)) {
+			observer.onChanged();
+		}
+	}
+
+	/**
+	 * Return the number of observers registered with <var>cursor</var>.
+	 */
+	public static int getObserverCount(Cursor cursor) {
+		return ((Rows)Proxy.getInvocationHandler(cursor)).mObservers.size();
+	}
+}